@@ -0,0 +1,12 @@
+// Host stand-in for the NDK logging header, used by the benchmark build only.
+#ifndef SQLITE4A_HOST_ANDROID_LOG_H
+#define SQLITE4A_HOST_ANDROID_LOG_H
+
+#include <stdio.h>
+
+#define ANDROID_LOG_ERROR 6
+
+#define __android_log_print(priority, tag, ...) (fprintf(stderr, "%s: ", tag), fprintf(stderr, __VA_ARGS__), \
+        fputc('\n', stderr))
+
+#endif // SQLITE4A_HOST_ANDROID_LOG_H
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a.benchmark;
+
+import sqlite4a.SQLite;
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteStmt;
+
+final class BenchmarkDb {
+
+    static final int ROWS = 10000;
+
+    static {
+        System.loadLibrary(SQLite.JNI_LIB);
+    }
+
+    private BenchmarkDb() {
+    }
+
+    static SQLiteDb open() {
+        return SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+    }
+
+    static SQLiteDb openPopulated() {
+        final SQLiteDb db = open();
+        db.exec("CREATE TABLE test(_id INTEGER PRIMARY KEY, int INTEGER, real REAL, text TEXT, blob BLOB);");
+        db.exec("BEGIN;");
+        final SQLiteStmt stmt = db.prepare("INSERT INTO test(int, real, text, blob) VALUES(?, ?, ?, ?);");
+        final byte[] blob = new byte[64];
+        for (int i = 0; i < ROWS; ++i) {
+            stmt.bindLong(1, i);
+            stmt.bindDouble(2, i * 0.5);
+            stmt.bindString(3, "text value " + i);
+            blob[i % blob.length] = (byte) i;
+            stmt.bindBlob(4, blob);
+            stmt.insert();
+            stmt.clearBindings();
+        }
+        stmt.close();
+        db.exec("COMMIT;");
+        return db;
+    }
+
+}
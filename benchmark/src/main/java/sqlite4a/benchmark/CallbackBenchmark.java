@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Comparator;
+
+import sqlite4a.SQLiteContext;
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteValue;
+
+/**
+ * Java upcalls from native code: scalar functions, collations and statement tracing.
+ */
+@State(Scope.Thread)
+public class CallbackBenchmark {
+
+    private SQLiteDb mDb;
+
+    private SQLiteDb mTracedDb;
+
+    private int mTraceCount;
+
+    @Setup
+    public void setUp() {
+        mDb = BenchmarkDb.openPopulated();
+        mDb.createFunction("java_add", 2, new SQLiteDb.Func() {
+            @Override
+            public void call(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+                context.resultLong(values[0].longValue() + values[1].longValue());
+            }
+        });
+        mDb.createCollation("JAVA_NOCASE", new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return lhs.compareToIgnoreCase(rhs);
+            }
+        });
+        mTracedDb = BenchmarkDb.open();
+        mTracedDb.trace(new SQLiteDb.Trace() {
+            @Override
+            public void trace(String sql) {
+                ++mTraceCount;
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkDb.ROWS)
+    public Number function() {
+        return mDb.execForNumber("SELECT SUM(java_add(int, _id)) FROM test;");
+    }
+
+    @Benchmark
+    public Number collation() {
+        return mDb.execForNumber("SELECT _id FROM (SELECT _id, text FROM test ORDER BY text COLLATE JAVA_NOCASE);");
+    }
+
+    @Benchmark
+    public void trace() {
+        mTracedDb.exec("SELECT 1;");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDb.close();
+        mTracedDb.close();
+    }
+
+}
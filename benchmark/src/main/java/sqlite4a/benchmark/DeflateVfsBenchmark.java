@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sqlite4a.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import sqlite4a.SQLite;
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteIterator;
+import sqlite4a.SQLiteStmt;
+
+/**
+ * Plain file VFS against {@link SQLite#VFS_DEFLATE} on a text table. The on-disk footprint of each
+ * trial is printed on tear down; it is computed from the page slots instead of the file system,
+ * so it is the same on every host.
+ */
+@State(Scope.Thread)
+public class DeflateVfsBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private static final int LOOKUPS = 100;
+
+    private static final int BLOCK = 4096;
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing",
+            "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna"};
+
+    @Param({"plain", "deflate"})
+    public String mVfs;
+
+    @Param({"16384", "65536"})
+    public int mPageSize;
+
+    private final String[] mBodies = new String[ROWS];
+
+    private final Random mRandom = new Random(1);
+
+    private File mFile;
+
+    private SQLiteDb mDb;
+
+    private SQLiteStmt mInsert;
+
+    private long mRowCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < ROWS; ++i) {
+            body.setLength(0);
+            for (int j = 0; j < 40; ++j) {
+                body.append(WORDS[mRandom.nextInt(WORDS.length)]).append(' ');
+            }
+            mBodies[i] = body.toString();
+        }
+        mFile = File.createTempFile("deflate", ".db");
+        mFile.delete();
+        if ("deflate".equals(mVfs)) {
+            mDb = SQLite.open("file:" + mFile.getAbsolutePath() + "?vfs=" + SQLite.VFS_DEFLATE,
+                    SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE | SQLite.OPEN_URI);
+        } else {
+            mDb = SQLite.open(mFile.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        }
+        mDb.exec("PRAGMA page_size = " + mPageSize + ";");
+        // keep SQLite's own page cache small so reads reach the VFS
+        mDb.exec("PRAGMA cache_size = 16;");
+        mDb.exec("CREATE TABLE test(_id INTEGER PRIMARY KEY, body TEXT);");
+        mInsert = mDb.prepare("INSERT INTO test(body) VALUES(?);");
+        for (int i = 0; i < 20; ++i) {
+            insert();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void insert() {
+        mDb.exec("BEGIN;");
+        for (int i = 0; i < ROWS; ++i) {
+            mInsert.bindString(1, mBodies[i]);
+            mInsert.insert();
+            mInsert.clearBindings();
+        }
+        mDb.exec("COMMIT;");
+        mRowCount += ROWS;
+    }
+
+    @Benchmark
+    public Number scan() {
+        return mDb.execForNumber("SELECT SUM(length(body)) FROM test;");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long lookup() {
+        long length = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            final SQLiteStmt stmt = mDb.prepare("SELECT body FROM test WHERE _id = ?;");
+            stmt.bindLong(1, 1 + (long) (mRandom.nextDouble() * mRowCount));
+            final SQLiteIterator iterator = stmt.select();
+            if (iterator.hasNext()) {
+                length += iterator.next().getColumnString(0).length();
+            }
+            iterator.close();
+        }
+        return length;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mInsert.close();
+        mDb.close();
+        System.out.println(mVfs + " page_size=" + mPageSize + ": file=" + mFile.length() / 1024
+                + " KiB, stored=" + storedBytes(mFile, mPageSize) / 1024 + " KiB");
+        mFile.delete();
+    }
+
+    // Mirrors the slot layout of sqlite3_deflate_vfs.cc: a deflated page occupies its header plus the
+    // compressed bytes rounded up to whole blocks, every other page its full size.
+    private static long storedBytes(File file, int pageSize) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] header = new byte[8];
+            long stored = 0;
+            for (long offset = 0; offset < raf.length(); offset += pageSize) {
+                raf.seek(offset);
+                raf.readFully(header);
+                if (offset > 0 && (header[0] & 0xff) == 0xff && header[1] == 'Z') {
+                    final long length = ((header[4] & 0xffL) << 24) | ((header[5] & 0xffL) << 16)
+                            | ((header[6] & 0xffL) << 8) | (header[7] & 0xffL);
+                    stored += (8 + length + BLOCK - 1) / BLOCK * BLOCK;
+                } else {
+                    stored += pageSize;
+                }
+            }
+            return stored;
+        } finally {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import sqlite4a.SQLiteBatch;
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteStmt;
+
+@State(Scope.Thread)
+public class InsertBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private final long[] mLongs = new long[ROWS];
+
+    private final double[] mDoubles = new double[ROWS];
+
+    private final String[] mStrings = new String[ROWS];
+
+    private final byte[][] mBlobs = new byte[ROWS][];
+
+    private SQLiteDb mDb;
+
+    private SQLiteStmt mStmt;
+
+    @Setup(Level.Trial)
+    public void setUpData() {
+        for (int i = 0; i < ROWS; ++i) {
+            mLongs[i] = i;
+            mDoubles[i] = i * 0.5;
+            mStrings[i] = "text value " + i;
+            mBlobs[i] = new byte[64];
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mDb = BenchmarkDb.open();
+        mDb.exec("CREATE TABLE test(_id INTEGER PRIMARY KEY, int INTEGER, real REAL, text TEXT, blob BLOB);");
+        mStmt = mDb.prepare("INSERT INTO test(int, real, text, blob) VALUES(?, ?, ?, ?);");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bindInsert() {
+        mDb.exec("BEGIN;");
+        for (int i = 0; i < ROWS; ++i) {
+            mStmt.bindLong(1, mLongs[i]);
+            mStmt.bindDouble(2, mDoubles[i]);
+            mStmt.bindString(3, mStrings[i]);
+            mStmt.bindBlob(4, mBlobs[i]);
+            mStmt.insert();
+            mStmt.clearBindings();
+        }
+        mDb.exec("COMMIT;");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] insertBatch() {
+        return mStmt.insertBatch(new SQLiteBatch(ROWS)
+                .bindLongs(1, mLongs)
+                .bindDoubles(2, mDoubles)
+                .bindStrings(3, mStrings)
+                .bindBlobs(4, mBlobs), true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mStmt.close();
+        mDb.close();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteStmt;
+
+@State(Scope.Thread)
+public class PrepareBenchmark {
+
+    @Param({"0", "16"})
+    public int mCacheSize;
+
+    private SQLiteDb mDb;
+
+    @Setup
+    public void setUp() {
+        mDb = BenchmarkDb.openPopulated();
+        mDb.setStatementCacheSize(mCacheSize);
+    }
+
+    @Benchmark
+    public void prepare() {
+        final SQLiteStmt stmt = mDb.prepare("SELECT _id, int, real, text, blob FROM test WHERE _id = ? AND int > ?;");
+        stmt.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDb.close();
+    }
+
+}
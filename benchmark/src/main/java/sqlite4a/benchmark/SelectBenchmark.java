@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sqlite4a.SQLiteDb;
+import sqlite4a.SQLiteIterator;
+import sqlite4a.SQLiteRow;
+
+@State(Scope.Thread)
+public class SelectBenchmark {
+
+    @Param({"int", "real", "text", "blob"})
+    public String mColumn;
+
+    @Param({"0", "256"})
+    public int mWindowSize;
+
+    private SQLiteDb mDb;
+
+    @Setup
+    public void setUp() {
+        mDb = BenchmarkDb.openPopulated();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkDb.ROWS)
+    public void select(Blackhole blackhole) {
+        final SQLiteIterator iterator = mWindowSize > 0
+                ? mDb.prepare("SELECT " + mColumn + " FROM test;").select(mWindowSize)
+                : mDb.prepare("SELECT " + mColumn + " FROM test;").select();
+        while (iterator.hasNext()) {
+            final SQLiteRow row = iterator.next();
+            switch (mColumn) {
+                case "int":
+                    blackhole.consume(row.getColumnLong(0));
+                    break;
+                case "real":
+                    blackhole.consume(row.getColumnDouble(0));
+                    break;
+                case "text":
+                    blackhole.consume(row.getColumnString(0));
+                    break;
+                default:
+                    blackhole.consume(row.getColumnBlob(0));
+                    break;
+            }
+        }
+        iterator.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDb.close();
+    }
+
+}
@@ -4,6 +4,22 @@
 
 -keep class sqlite4a.JniFunc {
     void call(long, long[]);
+    void call(long, int, long, long, long);
+}
+
+-keep class sqlite4a.JniAggregate {
+    java.lang.Object create();
+    void step(java.lang.Object, long, long[]);
+    void step(java.lang.Object, long, int, long, long, long);
+    void finish(java.lang.Object, long);
+}
+
+-keep class sqlite4a.SQLiteMetrics {
+    <init>(java.lang.String, long[]);
+}
+
+-keep class sqlite4a.SQLiteChanges {
+    <init>(java.lang.String[], int[], long[], boolean);
 }
 
 -keep public class sqlite4a.** {
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteAsyncTest {
+
+    private SQLiteAsync mAsync;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        mAsync = new SQLiteAsync(db, null);
+    }
+
+    @Test
+    public void coalescedWrites() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger transactions = new AtomicInteger();
+        mAsync.read(new SQLiteAsync.Task<Void>() {
+            @Override
+            public Void call(@NonNull SQLiteDb db) {
+                db.trace(new SQLiteDb.Trace() {
+                    @Override
+                    public void trace(String sql) {
+                        if (sql.startsWith("BEGIN")) {
+                            transactions.incrementAndGet();
+                        }
+                    }
+                });
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }, null);
+        final List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            final int value = i;
+            writes.add(mAsync.write(new SQLiteAsync.Task<Void>() {
+                @Override
+                public Void call(@NonNull SQLiteDb db) {
+                    if (value == 2) {
+                        throw new IllegalStateException("rejected");
+                    }
+                    db.exec("INSERT INTO test VALUES(" + value + ");");
+                    return null;
+                }
+            }, null));
+        }
+        gate.countDown();
+        int failed = 0;
+        for (final Future<Void> write : writes) {
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                ++failed;
+            }
+        }
+        Assert.assertThat(failed, Is.is(1));
+        Assert.assertThat(transactions.get(), Is.is(1));
+        Assert.assertThat(count(), Is.is(4L));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelRunning() throws Exception {
+        final Future<Number> future = mAsync.read(new SQLiteAsync.Task<Number>() {
+            @Override
+            public Number call(@NonNull SQLiteDb db) {
+                return db.execForNumber("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) " +
+                        "SELECT COUNT(*) FROM c;");
+            }
+        }, null);
+        Thread.sleep(100);
+        Assert.assertThat(future.cancel(true), Is.is(true));
+        Assert.assertThat(count(), Is.is(0L));
+        future.get();
+    }
+
+    @Test
+    public void cancelQueuedWrite() throws Exception {
+        final CountDownLatch batched = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        mAsync.read(new SQLiteAsync.Task<Void>() {
+            @Override
+            public Void call(@NonNull SQLiteDb db) {
+                await(batched);
+                return null;
+            }
+        }, null);
+        final List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            final int value = i;
+            writes.add(mAsync.write(new SQLiteAsync.Task<Void>() {
+                @Override
+                public Void call(@NonNull SQLiteDb db) {
+                    db.exec("INSERT INTO test VALUES(" + value + ");");
+                    if (value == 0) {
+                        running.countDown();
+                        await(gate);
+                    }
+                    return null;
+                }
+            }, null));
+        }
+        batched.countDown();
+        running.await();
+        Assert.assertThat(writes.get(1).cancel(true), Is.is(true));
+        gate.countDown();
+        writes.get(0).get();
+        writes.get(2).get();
+        Assert.assertThat(writes.get(1).isCancelled(), Is.is(true));
+        Assert.assertThat(count(), Is.is(2L));
+    }
+
+    @Test
+    public void cancelRunningSharedWrite() throws Exception {
+        final CountDownLatch batched = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        mAsync.read(new SQLiteAsync.Task<Void>() {
+            @Override
+            public Void call(@NonNull SQLiteDb db) {
+                await(batched);
+                return null;
+            }
+        }, null);
+        final List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            final int value = i;
+            writes.add(mAsync.write(new SQLiteAsync.Task<Void>() {
+                @Override
+                public Void call(@NonNull SQLiteDb db) {
+                    db.exec("INSERT INTO test VALUES(" + value + ");");
+                    if (value == 1) {
+                        running.countDown();
+                        await(gate);
+                    }
+                    return null;
+                }
+            }, null));
+        }
+        batched.countDown();
+        running.await();
+        Assert.assertThat(writes.get(1).cancel(true), Is.is(true));
+        gate.countDown();
+        writes.get(0).get();
+        writes.get(2).get();
+        Assert.assertThat(writes.get(1).isCancelled(), Is.is(true));
+        Assert.assertThat(count(), Is.is(2L));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mAsync.close();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long count() throws Exception {
+        return mAsync.read(new SQLiteAsync.Task<Long>() {
+            @Override
+            public Long call(@NonNull SQLiteDb db) {
+                return db.execForNumber("SELECT COUNT(*) FROM test;").longValue();
+            }
+        }, null).get();
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteBackupTest {
+
+    private SQLiteDb mDb;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDb = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        mDb.exec("CREATE TABLE test(value BLOB);");
+        mDb.exec("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c LIMIT 100) " +
+                "INSERT INTO test SELECT randomblob(4096) FROM c;");
+    }
+
+    @Test
+    public void backupToFile() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("backup.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final AtomicInteger steps = new AtomicInteger();
+        final SQLiteBackup backup = SQLiteBackup.open(file.getAbsolutePath(), mDb);
+        try {
+            backup.run(10, 0, new SQLiteBackup.Progress() {
+                @Override
+                public void onProgress(int remaining, int pageCount) {
+                    Assert.assertThat(remaining <= pageCount, Is.is(true));
+                    steps.incrementAndGet();
+                }
+            });
+            Assert.assertThat(backup.isDone(), Is.is(true));
+        } finally {
+            backup.close();
+        }
+        Assert.assertThat(steps.get() > 1, Is.is(true));
+        final SQLiteDb copy = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READONLY);
+        Assert.assertThat(copy.execForNumber("SELECT COUNT(*) FROM test;").longValue(), Is.is(100L));
+        copy.close();
+    }
+
+    @Test
+    public void backupToDb() throws Exception {
+        final SQLiteDb copy = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        final SQLiteBackup backup = SQLiteBackup.open(copy, mDb);
+        Assert.assertThat(backup.step(-1), Is.is(true));
+        backup.close();
+        Assert.assertThat(copy.execForNumber("SELECT COUNT(*) FROM test;").longValue(), Is.is(100L));
+        copy.close();
+    }
+
+    @Test
+    public void backupToLockedFile() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("backup.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final SQLiteDb other = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        other.exec("BEGIN EXCLUSIVE;");
+        final SQLiteBackup locked = SQLiteBackup.open(file.getAbsolutePath(), mDb);
+        Assert.assertThat(locked.step(-1), Is.is(false));
+        locked.close();
+        final Thread unlocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(50);
+                other.exec("COMMIT;");
+            }
+        });
+        final SQLiteBackup backup = SQLiteBackup.open(file.getAbsolutePath(), mDb);
+        unlocker.start();
+        try {
+            backup.run(-1, 0, null);
+        } finally {
+            backup.close();
+            unlocker.join();
+            other.close();
+        }
+        Assert.assertThat(backup.isDone(), Is.is(true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDb.close();
+    }
+
+}
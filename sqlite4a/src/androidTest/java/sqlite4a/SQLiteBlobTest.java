@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsEqual;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteBlobTest {
+
+    private SQLiteDb mDb;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDb = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        mDb.exec("CREATE TABLE test(_id INTEGER PRIMARY KEY, data BLOB);");
+        mDb.exec("INSERT INTO test VALUES(1, zeroblob(8));");
+        mDb.exec("INSERT INTO test VALUES(2, x'0A0B');");
+    }
+
+    @Test
+    public void streams() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 1, true);
+        final OutputStream out = blob.openOutputStream();
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        final InputStream in = blob.openInputStream();
+        final byte[] actual = new byte[8];
+        Assert.assertThat(in.read(actual), Is.is(8));
+        Assert.assertThat(actual, IsEqual.equalTo(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+        Assert.assertThat(in.read(), Is.is(-1));
+        blob.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void writePastEnd() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 2, true);
+        try {
+            blob.openOutputStream().write(new byte[3]);
+        } finally {
+            blob.close();
+        }
+    }
+
+    @Test
+    public void closeTwice() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 1, false);
+        blob.close();
+        blob.close();
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void readAfterClose() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 1, false);
+        blob.close();
+        blob.read(0, ByteBuffer.allocate(4));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void streamWriteOutOfBounds() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 1, true);
+        try {
+            blob.openOutputStream().write(new byte[4], 2, 4);
+        } finally {
+            blob.close();
+        }
+    }
+
+    @Test
+    public void positional_reopen() throws Exception {
+        final SQLiteBlob blob = mDb.openBlob("test", "data", 1, true);
+        blob.write(4, ByteBuffer.wrap(new byte[]{42}));
+        final ByteBuffer dst = ByteBuffer.allocateDirect(8);
+        Assert.assertThat(blob.read(4, dst), Is.is(4));
+        Assert.assertThat(dst.get(0), Is.is((byte) 42));
+        blob.reopen(2);
+        Assert.assertThat(blob.length(), Is.is(2));
+        dst.clear();
+        Assert.assertThat(blob.read(0, dst), Is.is(2));
+        Assert.assertThat(dst.get(1), Is.is((byte) 0x0B));
+        blob.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDb.close();
+    }
+
+}
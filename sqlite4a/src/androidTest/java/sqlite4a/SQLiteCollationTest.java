@@ -16,6 +16,7 @@
 
 package sqlite4a;
 
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
@@ -30,7 +31,12 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
 
 @RunWith(AndroidJUnit4.class)
 public class SQLiteCollationTest {
@@ -79,6 +85,78 @@ public class SQLiteCollationTest {
         iterator.close();
     }
 
+    @Test
+    public void keyCollation() throws Exception {
+        final Collator collator = Collator.getInstance(Locale.FRENCH);
+        collator.setStrength(Collator.PRIMARY);
+        mDb.createCollation("FRENCH", 64, new SQLiteDb.CollationKey() {
+            @NonNull
+            @Override
+            public byte[] key(@NonNull String value) {
+                return collator.getCollationKey(value).toByteArray();
+            }
+        });
+        mDb.exec("INSERT INTO test VALUES('été', 'été');");
+        mDb.exec("INSERT INTO test VALUES('zèbre', 'zèbre');");
+        mDb.exec("INSERT INTO test VALUES('Ete', 'Ete');");
+        final SQLiteIterator iterator = mDb.prepare("SELECT bar FROM test ORDER BY bar COLLATE FRENCH, rowid;").select();
+        final List<String> values = new ArrayList<>();
+        while (iterator.hasNext()) {
+            values.add(iterator.next().getColumnString(0));
+        }
+        iterator.close();
+        Assert.assertThat(values, IsEqual.equalTo(Arrays.asList("été", "Ete", "test", "zèbre")));
+    }
+
+    @Test
+    public void keyCollationEviction() throws Exception {
+        final int[] calls = new int[1];
+        mDb.createCollation("REVERSE", 8, new SQLiteDb.CollationKey() {
+            @NonNull
+            @Override
+            public byte[] key(@NonNull String value) {
+                ++calls[0];
+                return new StringBuilder(value).reverse().toString().getBytes();
+            }
+        });
+        mDb.exec("DELETE FROM test;");
+        mDb.exec("WITH RECURSIVE c(x) AS (SELECT 10 UNION ALL SELECT x + 1 FROM c LIMIT 90) " +
+                "INSERT INTO test SELECT x, x FROM c;");
+        final SQLiteIterator iterator = mDb.prepare("SELECT bar FROM test ORDER BY bar COLLATE REVERSE;").select();
+        String previous = "";
+        int count = 0;
+        while (iterator.hasNext()) {
+            final String value = new StringBuilder(iterator.next().getColumnString(0)).reverse().toString();
+            Assert.assertThat(value.compareTo(previous) >= 0, Is.is(true));
+            previous = value;
+            ++count;
+        }
+        iterator.close();
+        Assert.assertThat(count, Is.is(90));
+        Assert.assertThat(calls[0] >= 90, Is.is(true));
+    }
+
+    @Test
+    public void keyCollationThrows() throws Exception {
+        mDb.createCollation("BROKEN", 8, new SQLiteDb.CollationKey() {
+            @NonNull
+            @Override
+            public byte[] key(@NonNull String value) {
+                throw new IllegalStateException("key");
+            }
+        });
+        mDb.exec("INSERT INTO test VALUES('other', 'other');");
+        final SQLiteIterator iterator = mDb.prepare("SELECT bar FROM test ORDER BY bar COLLATE BROKEN;").select();
+        try {
+            iterator.hasNext();
+            Assert.fail("key exception was not rethrown");
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), Is.is("key"));
+        } finally {
+            iterator.close();
+        }
+    }
+
     @After
     public void tearDown() throws Exception {
         mDb.close();
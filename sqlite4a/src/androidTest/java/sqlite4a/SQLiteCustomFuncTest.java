@@ -84,6 +84,124 @@ public class SQLiteCustomFuncTest {
         iterator.close();
     }
 
+    @Test
+    public void aggregate_concat() throws Exception {
+        mDb.exec("INSERT INTO test VALUES('second', 'capitalize', NULL);");
+        mDb.createAggregate("custom_concat", 1, new SQLiteDb.AggregateFactory() {
+            @NonNull
+            @Override
+            public SQLiteDb.Aggregate create() {
+                return new SQLiteDb.Aggregate() {
+                    private final StringBuilder mBuilder = new StringBuilder();
+
+                    @Override
+                    public void step(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+                        mBuilder.append(values[0].stringValue()).append(';');
+                    }
+
+                    @Override
+                    public void finish(@NonNull SQLiteContext context) {
+                        context.resultString(mBuilder.toString());
+                    }
+                };
+            }
+        });
+        final SQLiteIterator iterator = mDb.prepare("SELECT bar, custom_concat(foo) FROM test GROUP BY bar " +
+                "UNION ALL SELECT 'empty', custom_concat(foo) FROM test WHERE 0;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnString(1), IsEqual.equalTo("тест;second;"));
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnString(1), IsEqual.equalTo(""));
+        iterator.close();
+    }
+
+    @Test
+    public void aggregate_throws() throws Exception {
+        final int[] steps = new int[1];
+        mDb.createAggregate("broken", 1, new SQLiteDb.AggregateFactory() {
+            @NonNull
+            @Override
+            public SQLiteDb.Aggregate create() {
+                return new SQLiteDb.Aggregate() {
+                    @Override
+                    public void step(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+                        ++steps[0];
+                        throw new IllegalStateException("step");
+                    }
+
+                    @Override
+                    public void finish(@NonNull SQLiteContext context) {
+                        context.resultNull();
+                    }
+                };
+            }
+        });
+        final SQLiteIterator iterator = mDb.prepare("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 " +
+                "FROM c LIMIT 100) SELECT broken(x) FROM c;").select();
+        try {
+            iterator.hasNext();
+            Assert.fail("step exception was not rethrown");
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), IsEqual.equalTo("step"));
+        } finally {
+            iterator.close();
+        }
+        Assert.assertThat(steps[0], Is.is(1));
+    }
+
+    @Test
+    public void nested_call() throws Exception {
+        mDb.createFunction("countdown", 1, new SQLiteDb.Func() {
+            @Override
+            public void call(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+                final long value = values[0].longValue();
+                if (value > 0) {
+                    final SQLiteIterator iterator = mDb.prepare("SELECT countdown(" + (value - 1) + ");").select();
+                    iterator.hasNext();
+                    context.resultLong(values[0].longValue() + iterator.next().getColumnLong(0));
+                    iterator.close();
+                } else {
+                    context.resultLong(0);
+                }
+            }
+        });
+        final SQLiteIterator iterator = mDb.prepare("SELECT countdown(4);").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnLong(0), Is.is(10L));
+        iterator.close();
+    }
+
+    @Test
+    public void deterministic_memoized() throws Exception {
+        final SQLiteMemoFunc func = new SQLiteMemoFunc(16, new SQLiteMemoFunc.Body() {
+            @Override
+            public Object apply(@NonNull Object[] args) {
+                return args[0] == null ? null : ((String) args[0]).toLowerCase();
+            }
+        });
+        mDb.createFunction("normalize", 1, SQLite.FUNC_DETERMINISTIC, func);
+        mDb.exec("INSERT INTO test VALUES('A', NULL, NULL);");
+        mDb.exec("INSERT INTO test VALUES('A', NULL, NULL);");
+        mDb.exec("INSERT INTO test VALUES('a', NULL, NULL);");
+        mDb.exec("CREATE INDEX test_normalize ON test(normalize(foo));");
+        Assert.assertThat(func.hitCount(), Is.is(1));
+        final SQLiteIterator iterator = mDb.prepare("SELECT count(*) FROM test WHERE normalize(foo) = 'a';").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnLong(0), Is.is(3L));
+        iterator.close();
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void non_deterministic_index() throws Exception {
+        mDb.createFunction("custom_length", 1, new SQLiteDb.Func() {
+            @Override
+            public void call(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+                context.resultLong(values[0].stringValue().length());
+            }
+        });
+        mDb.exec("CREATE INDEX test_length ON test(custom_length(foo));");
+    }
+
     @After
     public void tearDown() throws Exception {
         mDb.close();
@@ -16,6 +16,8 @@
 
 package sqlite4a;
 
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
@@ -28,6 +30,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -115,4 +119,369 @@ public class SQLiteDbTest {
         db.close();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void statementCache() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.setStatementCacheSize(1);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        for (int i = 0; i < 3; ++i) {
+            final SQLiteStmt stmt = db.prepare("INSERT INTO test VALUES(?);");
+            stmt.bindLong(1, i);
+            stmt.insert();
+            stmt.close();
+        }
+        db.prepare("SELECT * FROM test;").close();
+        final SQLiteStmtCache cache = db.getStatementCache();
+        Assert.assertThat(cache.hitCount(), Is.is(2));
+        Assert.assertThat(cache.missCount(), Is.is(2));
+        Assert.assertThat(cache.evictionCount(), Is.is(1));
+        Assert.assertThat(cache.size(), Is.is(1));
+        Assert.assertThat(db.execForNumber("SELECT SUM(value) FROM test;").longValue(), Is.is(3L));
+        db.close();
+    }
+
+    @Test
+    public void progressHandler() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        final long deadline = SystemClock.uptimeMillis() + 100;
+        db.setProgressHandler(1000, new SQLiteDb.Progress() {
+            @Override
+            public boolean onProgress() {
+                return SystemClock.uptimeMillis() > deadline;
+            }
+        });
+        try {
+            db.execForNumber("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) SELECT COUNT(*) FROM c;");
+            Assert.fail("statement was not interrupted");
+        } catch (SQLiteException expected) {
+            // over budget
+        }
+        db.setProgressHandler(0, null);
+        Assert.assertThat(db.execForNumber("SELECT 1;").longValue(), Is.is(1L));
+        db.close();
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void interrupt() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        final Thread interrupter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(100);
+                db.interrupt();
+            }
+        });
+        interrupter.start();
+        try {
+            db.execForNumber("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) SELECT COUNT(*) FROM c;");
+        } finally {
+            interrupter.join();
+            db.close();
+        }
+    }
+
+    @Test
+    public void interruptSelect() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        final SQLiteStmt stmt = db.prepare("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) SELECT x FROM c;");
+        final SQLiteIterator iterator = stmt.select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        iterator.next();
+        db.interrupt();
+        try {
+            iterator.hasNext();
+            Assert.fail("iteration was not interrupted");
+        } catch (SQLiteException expected) {
+            // interrupted
+        }
+        Assert.assertThat(iterator.hasNext(), Is.is(false));
+        stmt.close();
+        db.close();
+    }
+
+    @Test
+    public void progressHandlerThrows() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.setProgressHandler(1000, new SQLiteDb.Progress() {
+            @Override
+            public boolean onProgress() {
+                throw new IllegalStateException("progress");
+            }
+        });
+        try {
+            db.execForNumber("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c) SELECT COUNT(*) FROM c;");
+            Assert.fail("statement was not interrupted");
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), Is.is("progress"));
+        }
+        db.close();
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("INSERT INTO test VALUES(1), (2), (3);");
+        db.setMetricsEnabled(8);
+        for (int i = 0; i < 3; ++i) {
+            final SQLiteStmt stmt = db.prepare("SELECT * FROM test WHERE value >= ? ORDER BY value DESC;");
+            stmt.bindLong(1, i);
+            final SQLiteIterator iterator = stmt.select();
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+            iterator.close();
+        }
+        final List<SQLiteMetrics> metrics = db.resetMetrics();
+        Assert.assertThat(metrics.size(), Is.is(1));
+        Assert.assertThat(metrics.get(0).getSql(), Is.is("SELECT * FROM test WHERE value >= ? ORDER BY value DESC;"));
+        Assert.assertThat(metrics.get(0).getCount(), Is.is(3L));
+        Assert.assertThat(metrics.get(0).getSorts(), Is.is(3L));
+        Assert.assertThat(metrics.get(0).getVmSteps() > 0, Is.is(true));
+        Assert.assertThat(db.getMetrics().isEmpty(), Is.is(true));
+        db.close();
+    }
+
+    @Test
+    public void metricsNormalizeLiterals() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER, name TEXT);");
+        db.setMetricsEnabled(2);
+        db.exec("INSERT INTO test VALUES(1, 'a');");
+        db.exec("INSERT INTO  test VALUES(-2.5e3, 'it''s');");
+        db.exec("INSERT INTO test VALUES(0x10, x'00');");
+        db.exec("SELECT * FROM test WHERE value = ?1;");
+        db.exec("DELETE FROM test;");
+        final List<SQLiteMetrics> metrics = db.resetMetrics();
+        Assert.assertThat(metrics.size(), Is.is(2));
+        for (final SQLiteMetrics metric : metrics) {
+            if (metric.getSql().startsWith("INSERT")) {
+                Assert.assertThat(metric.getSql(), Is.is("INSERT INTO test VALUES(?, ?);"));
+                Assert.assertThat(metric.getCount(), Is.is(3L));
+            } else {
+                Assert.assertThat(metric.getSql(), Is.is("SELECT * FROM test WHERE value = ?1;"));
+            }
+        }
+        Assert.assertThat(db.getStatus(true).getMetricsDropped(), Is.is(1L));
+        db.close();
+    }
+
+    @Test
+    public void nestedTransactions() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                db.exec("INSERT INTO test VALUES(1);");
+                try {
+                    db.runInTransaction(new Runnable() {
+                        @Override
+                        public void run() {
+                            db.exec("INSERT INTO test VALUES(2);");
+                            throw new IllegalStateException();
+                        }
+                    });
+                } catch (IllegalStateException expected) {
+                    Assert.assertThat(db.getTransactionDepth(), Is.is(1));
+                }
+                db.beginTransaction();
+                db.exec("INSERT INTO test VALUES(3);");
+                db.commit();
+            }
+        });
+        Assert.assertThat(db.getTransactionDepth(), Is.is(0));
+        Assert.assertThat(db.inTransaction(), Is.is(false));
+        Assert.assertThat(db.execForNumber("SELECT SUM(value) FROM test;").longValue(), Is.is(4L));
+        db.close();
+    }
+
+    @Test
+    public void busyBackoff() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("busy.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final SQLiteDb db = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        final SQLiteDb other = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE);
+        other.beginTransaction();
+        db.setBusyBackoff(1, 10, 50);
+        try {
+            db.exec("INSERT INTO test VALUES(1);");
+            Assert.fail("database was not locked");
+        } catch (SQLiteBusyException expected) {
+            // locked by the other connection
+        } finally {
+            other.rollback();
+            other.close();
+        }
+        final SQLiteDbStatus status = db.getStatus(true);
+        Assert.assertThat(status.getBusyEvents(), Is.is(1L));
+        Assert.assertThat(status.getBusyTimeouts(), Is.is(1L));
+        Assert.assertThat(status.getBusyWaitNanos() > 0, Is.is(true));
+        db.close();
+    }
+
+    @Test
+    public void batchCommitBusy() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("busy.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final SQLiteDb db = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("INSERT INTO test VALUES(1);");
+        final SQLiteDb other = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE);
+        final SQLiteIterator reader = other.prepare("SELECT value FROM test;").select();
+        Assert.assertThat(reader.hasNext(), Is.is(true));
+        final SQLiteStmt stmt = db.prepare("INSERT INTO test VALUES(?);");
+        try {
+            stmt.executeBatch(new SQLiteBatch(2).bindLongs(1, new long[]{2, 3}), true);
+            Assert.fail("commit was not blocked by the reader");
+        } catch (SQLiteBusyException expected) {
+            // the open reader keeps its shared lock
+        } finally {
+            stmt.close();
+            reader.close();
+            other.close();
+        }
+        Assert.assertThat(db.inTransaction(), Is.is(false));
+        Assert.assertThat(db.execForNumber("SELECT COUNT(*) FROM test;").longValue(), Is.is(1L));
+        db.close();
+    }
+
+    @Test
+    public void busyHandlerThrows() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("busy.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final SQLiteDb db = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        final SQLiteDb other = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE);
+        other.beginTransaction();
+        other.exec("INSERT INTO test VALUES(1);");
+        db.setBusyHandler(new SQLiteDb.BusyHandler() {
+            @Override
+            public boolean onBusy(int count, long waitedMs) {
+                throw new IllegalStateException("busy");
+            }
+        });
+        try {
+            db.exec("INSERT INTO test VALUES(2);");
+            Assert.fail("database was not locked");
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), Is.is("busy"));
+        } finally {
+            other.rollback();
+            other.close();
+        }
+        db.exec("INSERT INTO test VALUES(3);");
+        db.close();
+    }
+
+    @Test
+    public void serializeDeserialize() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("INSERT INTO test VALUES(1);");
+        db.exec("INSERT INTO test VALUES(2);");
+        final byte[] image = db.serialize();
+        db.close();
+        final ByteBuffer direct = ByteBuffer.allocateDirect(image.length);
+        direct.put(image).flip();
+        final SQLiteDb copy = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        copy.deserialize(direct);
+        Assert.assertThat(direct.remaining(), Is.is(image.length));
+        copy.exec("INSERT INTO test VALUES(3);");
+        Assert.assertThat(copy.execForNumber("SELECT SUM(value) FROM test;").longValue(), Is.is(6L));
+        try {
+            copy.deserialize(ByteBuffer.wrap(new byte[4096]));
+            Assert.fail("garbage image was accepted");
+        } catch (SQLiteException expected) {
+            // not a database
+        }
+        copy.close();
+    }
+
+    @Test
+    public void changeListener() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("CREATE TABLE other(value INTEGER);");
+        final List<SQLiteChanges> batches = new ArrayList<>();
+        db.setChangeListener(4, new SQLiteDb.ChangeListener() {
+            @Override
+            public void onChanges(@NonNull SQLiteChanges changes) {
+                batches.add(changes);
+            }
+        });
+        db.beginTransaction();
+        db.exec("INSERT INTO test VALUES(1);");
+        db.exec("INSERT INTO other VALUES(2);");
+        db.exec("UPDATE test SET value = 3 WHERE rowid = 1;");
+        db.commit();
+        db.beginTransaction();
+        db.exec("DELETE FROM test;");
+        db.rollback();
+        db.exec("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c LIMIT 10) " +
+                "INSERT INTO other SELECT x FROM c;");
+        db.close();
+        Assert.assertThat(batches.size(), Is.is(2));
+        final SQLiteChanges first = batches.get(0);
+        Assert.assertThat(first.getTables(), IsIterableContainingInOrder.contains("test", "other"));
+        Assert.assertThat(first.size(), Is.is(3));
+        Assert.assertThat(first.getOp(2), Is.is(SQLiteChanges.UPDATE));
+        Assert.assertThat(first.getRowids("test").length, Is.is(2));
+        final SQLiteChanges second = batches.get(1);
+        Assert.assertThat(second.isTruncated(), Is.is(true));
+        Assert.assertThat(second.contains("other"), Is.is(true));
+        Assert.assertThat(second.size(), Is.is(0));
+    }
+
+    @Test
+    public void changeListenerHooklessChanges() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("CREATE TABLE kv(k TEXT PRIMARY KEY, v TEXT) WITHOUT ROWID;");
+        db.exec("INSERT INTO test VALUES(1), (2);");
+        final List<SQLiteChanges> batches = new ArrayList<>();
+        db.setChangeListener(4, new SQLiteDb.ChangeListener() {
+            @Override
+            public void onChanges(@NonNull SQLiteChanges changes) {
+                batches.add(changes);
+            }
+        });
+        db.exec("DELETE FROM test;");
+        final SQLiteStmt stmt = db.prepare("INSERT INTO kv VALUES(?, 'v');");
+        stmt.bindString(1, "k");
+        stmt.execute();
+        stmt.close();
+        db.exec("DELETE FROM kv WHERE k = 'missing';");
+        db.close();
+        Assert.assertThat(batches.size(), Is.is(2));
+        Assert.assertThat(batches.get(0).getTables(), IsIterableContainingInOrder.contains("test"));
+        Assert.assertThat(batches.get(0).isTruncated(), Is.is(true));
+        Assert.assertThat(batches.get(1).getTables(), IsIterableContainingInOrder.contains("kv"));
+        Assert.assertThat(batches.get(1).isTruncated(), Is.is(true));
+    }
+
+    @Test
+    public void changeListenerThrows() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.setChangeListener(4, new SQLiteDb.ChangeListener() {
+            @Override
+            public void onChanges(@NonNull SQLiteChanges changes) {
+                throw new IllegalStateException("listener");
+            }
+        });
+        try {
+            db.exec("INSERT INTO test VALUES(1);");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertThat(e.getMessage(), Is.is("listener"));
+        }
+        Assert.assertThat(db.execForNumber("SELECT count(*) FROM test;").longValue(), Is.is(1L));
+        db.close();
+    }
+
+}
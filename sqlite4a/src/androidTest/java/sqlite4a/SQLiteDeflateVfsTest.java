@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sqlite4a;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteDeflateVfsTest {
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing",
+            "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna"};
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    private static File databaseFile(String name) {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath(name);
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(name);
+        return file;
+    }
+
+    private static SQLiteDb open(File file) {
+        return SQLite.open("file:" + file.getAbsolutePath() + "?vfs=" + SQLite.VFS_DEFLATE,
+                SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE | SQLite.OPEN_URI);
+    }
+
+    private static void fill(SQLiteDb db, int rows) {
+        db.exec("PRAGMA page_size = 65536;");
+        db.exec("CREATE TABLE test(id INTEGER PRIMARY KEY, body TEXT);");
+        final Random random = new Random(1);
+        final StringBuilder body = new StringBuilder();
+        db.beginTransaction();
+        final SQLiteStmt stmt = db.prepare("INSERT INTO test(body) VALUES(?);");
+        for (int i = 0; i < rows; ++i) {
+            body.setLength(0);
+            for (int j = 0; j < 40; ++j) {
+                body.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            stmt.bindString(1, body.toString());
+            stmt.execute();
+            stmt.clearBindings();
+        }
+        stmt.close();
+        db.commit();
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        final File file = databaseFile("deflate.db");
+        SQLiteDb db = open(file);
+        fill(db, 5000);
+        db.exec("UPDATE test SET body = upper(body) WHERE id % 7 = 0;");
+        db.exec("DELETE FROM test WHERE id % 5 = 0;");
+        final long sum = db.execForNumber("SELECT SUM(length(body)) FROM test;").longValue();
+        db.close();
+        db = open(file);
+        Assert.assertThat(db.execForNumber("SELECT COUNT(*) FROM test;").longValue(), Is.is(4000L));
+        Assert.assertThat(db.execForNumber("SELECT SUM(length(body)) FROM test;").longValue(), Is.is(sum));
+        final SQLiteIterator iterator = db.prepare("PRAGMA integrity_check;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnString(0), Is.is("ok"));
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void cacheFollowsPragma() throws Exception {
+        final File file = databaseFile("deflate.db");
+        final SQLiteDb db = open(file);
+        fill(db, 2000);
+        final long sum = db.execForNumber("SELECT SUM(length(body)) FROM test;").longValue();
+        db.exec("PRAGMA cache_size = 0;");
+        db.exec("UPDATE test SET body = lower(body) WHERE id % 3 = 0;");
+        Assert.assertThat(db.execForNumber("SELECT SUM(length(body)) FROM test;").longValue(), Is.is(sum));
+        db.exec("PRAGMA cache_size = -512;");
+        Assert.assertThat(db.execForNumber("SELECT COUNT(*) FROM test;").longValue(), Is.is(2000L));
+        final SQLiteIterator iterator = db.prepare("PRAGMA integrity_check;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnString(0), Is.is("ok"));
+        iterator.close();
+        db.close();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sqlite4a;
+
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLiteImageTest {
+
+    private File mFile;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c LIMIT 100) " +
+                "INSERT INTO test SELECT x FROM c;");
+        final byte[] image = db.serialize();
+        db.close();
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "image.bin");
+        final FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[100]);
+            out.write(image);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void mapBuffer() throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        final ByteBuffer buffer;
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 100, mFile.length() - 100);
+        } finally {
+            file.close();
+        }
+        final SQLiteImage image = SQLiteImage.map(buffer);
+        final SQLiteDb db = image.open();
+        image.close();
+        Assert.assertThat(db.isReadOnly(), Is.is(true));
+        Assert.assertThat(db.execForNumber("SELECT SUM(value) FROM test;").longValue(), Is.is(5050L));
+        db.close();
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void openAfterClose() throws Exception {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            final SQLiteImage image = SQLiteImage.map(file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    100, mFile.length() - 100));
+            image.close();
+            image.open();
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void mapPastEnd() throws Exception {
+        final ParcelFileDescriptor fd = ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        try {
+            SQLiteImage.map(fd.getFd(), 100, mFile.length());
+        } finally {
+            fd.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+}
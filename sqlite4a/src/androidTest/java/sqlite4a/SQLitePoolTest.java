@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getkeepsafe.relinker.ReLinker;
+
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+public class SQLitePoolTest {
+
+    private File mDbFile;
+
+    private SQLitePool mPool;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        ReLinker.loadLibrary(InstrumentationRegistry.getContext(), SQLite.JNI_LIB);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDbFile = InstrumentationRegistry.getTargetContext().getDatabasePath("pool.db");
+        mDbFile.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(mDbFile.getName());
+        mPool = SQLitePool.open(mDbFile.getAbsolutePath(), 2, 1000);
+        mPool.write(new SQLitePool.Func<Void>() {
+            @Override
+            public Void call(@NonNull SQLiteDb db) {
+                db.exec("CREATE TABLE test(value INTEGER);");
+                db.exec("INSERT INTO test VALUES(1);");
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void read() throws Exception {
+        final Number count = mPool.read(new SQLitePool.Func<Number>() {
+            @Override
+            public Number call(@NonNull SQLiteDb db) {
+                Assert.assertThat(db.isReadOnly(), Is.is(true));
+                return db.execForNumber("SELECT COUNT(*) FROM test;");
+            }
+        });
+        Assert.assertThat(count.longValue(), Is.is(1L));
+    }
+
+    @Test
+    public void nestedReadReusesConnection() throws Exception {
+        final SQLiteDb outer = mPool.acquireReader();
+        final SQLiteDb inner = mPool.acquireReader();
+        Assert.assertThat(inner == outer, Is.is(true));
+        mPool.releaseReader(inner);
+        mPool.releaseReader(outer);
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void readerTimeout() throws Exception {
+        for (int i = 0; i < 2; ++i) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mPool.acquireReader();
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        mPool.acquireReader();
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void writeAfterClose() throws Exception {
+        mPool.close();
+        mPool.acquireWriter();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mPool.close();
+    }
+
+}
@@ -25,6 +25,7 @@ import org.hamcrest.Matchers;
 import org.hamcrest.core.Is;
 import org.hamcrest.core.IsEqual;
 import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsNull;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -32,6 +33,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -94,6 +97,67 @@ public class SQLiteStmtTest {
         actual.close();
     }
 
+    @Test
+    public void select_window() throws Exception {
+        final SQLiteIterator actual = mDb.prepare("SELECT * FROM test;").select(3);
+        final Iterator<Entry> expected = mEntries.iterator();
+        while (actual.hasNext() && expected.hasNext()) {
+            final Entry entry = Entry.map(actual.next());
+            Assert.assertThat(entry, IsEqual.equalTo(expected.next()));
+            Assert.assertThat(entry.mId, Matchers.greaterThan(0L));
+        }
+        Assert.assertThat(actual.hasNext(), Is.is(false));
+        Assert.assertThat(expected.hasNext(), Is.is(false));
+        actual.close();
+    }
+
+    @Test
+    public void select_windowConversions() throws Exception {
+        final String sql = "SELECT '12abc', ' 1.5e3x', '1f', 'NaN', 'Infinity', 1e10, 0.1, -2.5e-7, " +
+                "x'3432', 9223372036854775807.0, '-x', ' -0012.50e1', '99999999999999999999', " +
+                "'1341652480907745820946', 1e300, 1.5e-5, 123456789012345.6, -0.0;";
+        final SQLiteIterator rows = mDb.prepare(sql).select();
+        final SQLiteIterator window = mDb.prepare(sql).select(2);
+        Assert.assertThat(rows.hasNext(), Is.is(true));
+        Assert.assertThat(window.hasNext(), Is.is(true));
+        final SQLiteRow expected = rows.next();
+        final SQLiteRow actual = window.next();
+        for (int i = 0; i < expected.getColumnCount(); ++i) {
+            Assert.assertThat(actual.getColumnLong(i), Is.is(expected.getColumnLong(i)));
+            Assert.assertThat(actual.getColumnDouble(i), Is.is(expected.getColumnDouble(i)));
+            Assert.assertThat(actual.getColumnString(i), IsEqual.equalTo(expected.getColumnString(i)));
+        }
+        Assert.assertThat(actual.getColumnLong(0), Is.is(12L));
+        Assert.assertThat(actual.getColumnDouble(3), Is.is(0.0));
+        Assert.assertThat(actual.getColumnString(5), IsEqual.equalTo("10000000000.0"));
+        rows.close();
+        window.close();
+    }
+
+    @Test
+    public void select_windowGrows() throws Exception {
+        final byte[] blob = new byte[200 * 1024];
+        new SecureRandom().nextBytes(blob);
+        final SQLiteStmt insert = mDb.prepare("INSERT INTO test(text, blob) VALUES(?, ?);");
+        insert.bindString(1, "large");
+        insert.bindBlob(2, blob);
+        insert.insert();
+        insert.close();
+        final SQLiteIterator actual = mDb.prepare("SELECT text, blob FROM test ORDER BY _id;").select(3);
+        int count = 0;
+        while (actual.hasNext()) {
+            final SQLiteRow row = actual.next();
+            if (++count > mEntries.size()) {
+                Assert.assertThat(row.getColumnString(0), IsEqual.equalTo("large"));
+                Assert.assertThat(row.getColumnBlob(1), IsEqual.equalTo(blob));
+            } else {
+                Assert.assertThat(row.getColumnString(0), IsEqual.equalTo(mEntries.get(count - 1).mText));
+            }
+        }
+        Assert.assertThat(count, Is.is(mEntries.size() + 1));
+        actual.close();
+    }
+
     @Test
     public void execute_delete() throws Exception {
         final Entry removed = mEntries.remove(5);
@@ -108,11 +172,174 @@ public class SQLiteStmtTest {
         actual.close();
     }
 
+    @Test
+    public void insertBatch() throws Exception {
+        final SQLiteStmt stmt = mDb.prepare("INSERT INTO test(int, text, real, blob) VALUES(?, ?, ?, ?);");
+        final long[] ids = stmt.insertBatch(new SQLiteBatch(3)
+                .bindLongs(1, new long[]{1, 2, 3})
+                .bindStrings(2, new String[]{"a", null, "c"})
+                .bindDoubles(3, new double[]{1.5, 2.5, 3.5})
+                .bindBlobs(4, new byte[][]{new byte[]{1}, new byte[]{2}, null}), true);
+        stmt.close();
+        Assert.assertThat(ids, IsEqual.equalTo(new long[]{11, 12, 13}));
+        Assert.assertThat(mDb.inTransaction(), Is.is(false));
+        Assert.assertThat(mDb.execForNumber("SELECT COUNT(*) FROM test WHERE text IS NULL;").longValue(), Is.is(1L));
+    }
+
+    @Test
+    public void executeBatch() throws Exception {
+        final SQLiteStmt stmt = mDb.prepare("DELETE FROM test WHERE _id = ?;");
+        final long[] changes = stmt.executeBatch(new SQLiteBatch(3).bindLongs(1, new long[]{1, 2, 100}), false);
+        stmt.close();
+        Assert.assertThat(changes, IsEqual.equalTo(new long[]{1, 1, 0}));
+    }
+
+    @Test
+    public void insertBatch_unboundIsNull() throws Exception {
+        final SQLiteStmt stmt = mDb.prepare("INSERT INTO test(int, text) VALUES(?, ?);");
+        stmt.bindString(2, "stale");
+        stmt.insertBatch(new SQLiteBatch(2).bindLongs(1, new long[]{1, 2}), false);
+        stmt.close();
+        Assert.assertThat(mDb.execForNumber("SELECT COUNT(*) FROM test WHERE text = 'stale';").longValue(), Is.is(0L));
+    }
+
+    @Test
+    public void executeBatch_select() throws Exception {
+        final SQLiteStmt stmt = mDb.prepare("SELECT * FROM test WHERE _id = ?;");
+        try {
+            stmt.executeBatch(new SQLiteBatch(1).bindLongs(1, new long[]{1}), false);
+            Assert.fail("select was executed as a batch");
+        } catch (SQLiteException e) {
+            Assert.assertThat(e.getMessage(), IsEqual.equalTo("Batch statement returned a row, use select() for queries"));
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Test
+    public void blob_directBuffer() throws Exception {
+        final ByteBuffer value = ByteBuffer.allocateDirect(4);
+        value.put(new byte[]{1, 2, 3, 4}).flip();
+        final SQLiteStmt stmt = mDb.prepare("INSERT INTO test(blob) VALUES(?);");
+        stmt.bindBlob(1, value);
+        final long id = stmt.insert();
+        stmt.close();
+        final SQLiteStmt select = mDb.prepare("SELECT blob FROM test WHERE _id = ?;");
+        select.bindLong(1, id);
+        final SQLiteIterator iterator = select.select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        final ByteBuffer dst = ByteBuffer.allocateDirect(3);
+        Assert.assertThat(iterator.next().getColumnBlob(0, dst), Is.is(4));
+        Assert.assertThat(dst.position(), Is.is(3));
+        Assert.assertThat(dst.get(2), Is.is((byte) 3));
+        iterator.close();
+    }
+
+    @Test
+    public void string_utf16() throws Exception {
+        final String value = "smile \uD83D\uDE00";
+        final SQLiteStmt stmt = mDb.prepare("INSERT INTO test(text) VALUES(?);");
+        stmt.bindString(1, value);
+        final long id = stmt.insert();
+        stmt.close();
+        final SQLiteStmt select = mDb.prepare("SELECT text FROM test WHERE _id = ?;");
+        select.bindLong(1, id);
+        final SQLiteIterator iterator = select.select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        final SQLiteRow row = iterator.next();
+        Assert.assertThat(row.getColumnString(0), IsEqual.equalTo(value));
+        Assert.assertThat(row.columnEquals(0, value), Is.is(true));
+        Assert.assertThat(row.compareColumnString(0, "smile"), Matchers.greaterThan(0));
+        final char[] chars = new char[5];
+        Assert.assertThat(row.getColumnChars(0, chars, 0), Is.is(value.length()));
+        Assert.assertThat(new String(chars), IsEqual.equalTo("smile"));
+        iterator.close();
+    }
+
+    @Test
+    public void window_charsRespectLimit() throws Exception {
+        final SQLiteStmt insert = mDb.prepare("INSERT INTO test(text) VALUES(?);");
+        insert.bindString(1, "0123456789");
+        final long id = insert.insert();
+        insert.close();
+        final SQLiteStmt select = mDb.prepare("SELECT text FROM test WHERE _id = ?;");
+        select.bindLong(1, id);
+        final SQLiteIterator iterator = select.select(1);
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        final CharBuffer buffer = CharBuffer.allocate(8);
+        buffer.position(2).limit(5);
+        Assert.assertThat(iterator.next().getColumnChars(0, buffer), Is.is(10));
+        Assert.assertThat(buffer.position(), Is.is(5));
+        Assert.assertThat(buffer.array(), IsEqual.equalTo(new char[]{0, 0, '0', '1', '2', 0, 0, 0}));
+        iterator.close();
+    }
+
+    @Test
+    public void select_toList() throws Exception {
+        final SQLiteIterator iterator = mDb.prepare("SELECT text, _id, int FROM test;").select();
+        final List<Mapped> actual = iterator.toList(Mapped.class);
+        iterator.close();
+        Assert.assertThat(actual.size(), Is.is(mEntries.size()));
+        for (int i = 0; i < actual.size(); ++i) {
+            Assert.assertThat(actual.get(i).mId, Is.is(i + 1L));
+            Assert.assertThat(actual.get(i).mInt, Is.is(mEntries.get(i).mInt));
+            Assert.assertThat(actual.get(i).mText, IsEqual.equalTo(mEntries.get(i).mText));
+        }
+    }
+
+    @Test
+    public void getColumnIndex() throws Exception {
+        final SQLiteIterator iterator = mDb.prepare("SELECT text, _id, int FROM test;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        final SQLiteRow row = iterator.next();
+        Assert.assertThat(row.getColumnIndex("int"), Is.is(2));
+        Assert.assertThat(row.getColumnIndex("missing"), Is.is(-1));
+        iterator.close();
+    }
+
+    @Test
+    public void columnTypes() throws Exception {
+        final SQLiteIterator iterator = mDb.prepare("SELECT _id, real, text, blob, NULL FROM test;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        final SQLiteRow row = iterator.next();
+        final int[] types = new int[5];
+        Assert.assertThat(row.getColumnTypes(types), Is.is(5));
+        Assert.assertThat(types, IsEqual.equalTo(new int[]{
+                SQLite.TYPE_INTEGER, SQLite.TYPE_FLOAT, SQLite.TYPE_TEXT, SQLite.TYPE_BLOB, SQLite.TYPE_NULL
+        }));
+        Assert.assertThat(row.isNull(4), Is.is(true));
+        Assert.assertThat(row.isNull(0), Is.is(false));
+        Assert.assertThat(row.getColumnString(4), IsNull.nullValue());
+        iterator.close();
+    }
+
+    @Test
+    public void select_nextLongs() throws Exception {
+        final SQLiteIterator iterator = mDb.prepare("SELECT _id FROM test;").select(4);
+        final long[] ids = new long[12];
+        Assert.assertThat(iterator.nextLongs(0, ids, 1), Is.is(10));
+        Assert.assertThat(ids, IsEqual.equalTo(new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 0}));
+        iterator.close();
+    }
+
     @After
     public void tearDown() throws Exception {
         mDb.close();
     }
 
+    private static class Mapped {
+
+        @SQLiteColumn("_id")
+        long mId;
+
+        @SQLiteColumn("int")
+        int mInt;
+
+        @SQLiteColumn("text")
+        String mText;
+
+    }
+
     private static class Entry {
 
         long mId;
@@ -27,6 +27,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+
 @RunWith(AndroidJUnit4.class)
 public class SQLiteTest {
 
@@ -40,4 +42,67 @@ public class SQLiteTest {
         Assert.assertThat(SQLite.getLibVersion(), Is.is(3018000L));
     }
 
+    @Test
+    public void heapLimits() throws Exception {
+        final long soft = SQLite.setSoftHeapLimit(4 * 1024 * 1024);
+        try {
+            Assert.assertThat(SQLite.getSoftHeapLimit(), Is.is(4L * 1024 * 1024));
+        } finally {
+            SQLite.setSoftHeapLimit(soft);
+        }
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value BLOB);");
+        SQLite.setHardHeapLimit(SQLite.getStatus(false).getMemoryUsed() + 64 * 1024);
+        try {
+            db.exec("WITH RECURSIVE c(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM c LIMIT 1000) " +
+                    "INSERT INTO test SELECT randomblob(1024) FROM c;");
+            Assert.fail("hard heap limit was not enforced");
+        } catch (SQLiteException expected) {
+            // out of memory
+        } finally {
+            SQLite.setHardHeapLimit(0);
+            db.close();
+        }
+    }
+
+    @Test
+    public void status() throws Exception {
+        final SQLiteDb db = SQLite.open(":memory:", SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        db.exec("CREATE TABLE test(value INTEGER);");
+        db.exec("INSERT INTO test VALUES(1);");
+        db.execForNumber("SELECT COUNT(*) FROM test;");
+        Assert.assertThat(SQLite.getStatus(false).getMemoryUsed() > 0, Is.is(true));
+        final SQLiteDbStatus status = db.getStatus(true);
+        Assert.assertThat(status.getCacheUsed() > 0, Is.is(true));
+        Assert.assertThat(status.getCacheHits() > 0, Is.is(true));
+        Assert.assertThat(status.getSchemaUsed() > 0, Is.is(true));
+        Assert.assertThat(db.getStatus(false).getCacheHits(), Is.is(0L));
+        db.close();
+    }
+
+    @Test
+    public void openWithConfig() throws Exception {
+        final File file = InstrumentationRegistry.getTargetContext().getDatabasePath("config.db");
+        file.getParentFile().mkdirs();
+        InstrumentationRegistry.getTargetContext().deleteDatabase(file.getName());
+        final SQLiteDb db = SQLite.open(file.getAbsolutePath(), SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE,
+                SQLiteConfig.readMostly().setPageSize(8192).setTempStore(SQLiteConfig.TEMP_STORE_FILE));
+        db.exec("CREATE TABLE test(value INTEGER);");
+        Assert.assertThat(db.execForNumber("PRAGMA page_size;").intValue(), Is.is(8192));
+        Assert.assertThat(db.execForNumber("PRAGMA synchronous;").intValue(), Is.is(SQLiteConfig.SYNCHRONOUS_NORMAL));
+        Assert.assertThat(db.execForNumber("PRAGMA cache_size;").intValue(), Is.is(-8 * 1024));
+        Assert.assertThat(db.execForNumber("PRAGMA temp_store;").intValue(), Is.is(SQLiteConfig.TEMP_STORE_FILE));
+        final SQLiteIterator iterator = db.prepare("PRAGMA journal_mode;").select();
+        Assert.assertThat(iterator.hasNext(), Is.is(true));
+        Assert.assertThat(iterator.next().getColumnString(0), Is.is("wal"));
+        iterator.close();
+        db.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("WrongConstant")
+    public void configJournalModeOutOfRange() throws Exception {
+        new SQLiteConfig().setJournalMode(SQLiteConfig.JOURNAL_OFF + 1);
+    }
+
 }
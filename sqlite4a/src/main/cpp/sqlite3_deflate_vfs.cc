@@ -0,0 +1,525 @@
+#include <cerrno>
+#include <cstdint>
+#include <cstdlib>
+#include <cstring>
+#include <fcntl.h>
+#include <linux/falloc.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <list>
+#include <string>
+#include <unordered_map>
+#include <zlib.h>
+#include "sqlite3.h"
+#include "sqlite3_deflate_vfs.h"
+
+// Every page keeps its place in the file, a deflated page is stored as a header and the compressed bytes
+// at the start of its slot and the tail of the slot is left as a hole. The file stays randomly addressable,
+// journals and WAL pass through unchanged, the disk space saved is whatever whole file system blocks
+// the holes cover, so the shim only pays off with page sizes of 8 KiB and more.
+
+static const unsigned char ZIP_MAGIC_0 = 0xff;
+static const unsigned char ZIP_MAGIC_1 = 'Z';
+static const int ZIP_HEADER = 8;
+static const int ZIP_MIN_PAGE = 8192;
+static const int ZIP_BLOCK = 4096;
+// same meaning as PRAGMA cache_size, negative is KiB, SQLite's own default
+static const sqlite3_int64 ZIP_DEFAULT_CACHE = -2000;
+
+struct ZipShared {
+    std::string path;
+    int refs;
+    int fd;
+    sqlite3_mutex *lock;
+    // pages if positive, KiB if negative, follows PRAGMA cache_size unless fixed by the deflate_cache parameter
+    sqlite3_int64 cacheSize;
+    bool cacheFixed;
+    // cleared once the file system turns out not to support punching holes
+    bool holes;
+    std::list<sqlite3_int64> lru;
+    std::unordered_map<sqlite3_int64, std::pair<std::string, std::list<sqlite3_int64>::iterator>> pages;
+};
+
+struct ZipFile {
+    sqlite3_file base;
+    sqlite3_file *real;
+    ZipShared *shared;
+    int level;
+    char *scratch;
+    size_t scratchSize;
+};
+
+static sqlite3_vfs gZipVfs;
+
+static sqlite3_mutex *gZipLock = nullptr;
+
+static std::unordered_map<std::string, ZipShared *> gZipShared;
+
+static ZipShared *zip_shared_ref(const char *path, sqlite3_int64 cacheSize, bool cacheFixed, bool writable) {
+    sqlite3_mutex_enter(gZipLock);
+    ZipShared *shared;
+    auto entry = gZipShared.find(path);
+    if (gZipShared.end() == entry) {
+        shared = new ZipShared();
+        shared->path = path;
+        shared->refs = 0;
+        // only used to punch holes, kept open while any connection may hold a lock on the file
+        shared->fd = writable ? open(path, O_WRONLY | O_CLOEXEC) : -1;
+        shared->lock = sqlite3_mutex_alloc(SQLITE_MUTEX_FAST);
+        shared->cacheSize = cacheSize;
+        shared->cacheFixed = cacheFixed;
+        shared->holes = true;
+        gZipShared[shared->path] = shared;
+    } else {
+        shared = entry->second;
+        if (cacheFixed && (!shared->cacheFixed || shared->cacheSize < cacheSize)) {
+            shared->cacheSize = cacheSize;
+            shared->cacheFixed = true;
+        }
+        if (shared->fd < 0 && writable) {
+            shared->fd = open(path, O_WRONLY | O_CLOEXEC);
+        }
+    }
+    ++shared->refs;
+    sqlite3_mutex_leave(gZipLock);
+    return shared;
+}
+
+static void zip_shared_unref(ZipShared *shared) {
+    sqlite3_mutex_enter(gZipLock);
+    bool last = 0 == --shared->refs;
+    if (last) {
+        gZipShared.erase(shared->path);
+    }
+    sqlite3_mutex_leave(gZipLock);
+    if (last) {
+        if (shared->fd >= 0) {
+            close(shared->fd);
+        }
+        sqlite3_mutex_free(shared->lock);
+        delete shared;
+    }
+}
+
+static bool zip_cache_get(ZipShared *shared, sqlite3_int64 offset, void *buf, int amount) {
+    bool hit = false;
+    sqlite3_mutex_enter(shared->lock);
+    auto entry = shared->pages.find(offset);
+    if (shared->pages.end() != entry && entry->second.first.size() == static_cast<size_t>(amount)) {
+        memcpy(buf, entry->second.first.data(), static_cast<size_t>(amount));
+        shared->lru.splice(shared->lru.begin(), shared->lru, entry->second.second);
+        hit = true;
+    }
+    sqlite3_mutex_leave(shared->lock);
+    return hit;
+}
+
+// caller holds shared->lock
+static size_t zip_cache_limit(ZipShared *shared, int pageSize) {
+    if (shared->cacheSize >= 0) {
+        return static_cast<size_t>(shared->cacheSize);
+    }
+    return static_cast<size_t>(-shared->cacheSize * 1024 / pageSize);
+}
+
+// caller holds shared->lock
+static void zip_cache_evict(ZipShared *shared, size_t limit) {
+    while (shared->pages.size() > limit) {
+        shared->pages.erase(shared->lru.back());
+        shared->lru.pop_back();
+    }
+}
+
+static void zip_cache_resize(ZipShared *shared, const char *value) {
+    char *end = nullptr;
+    sqlite3_int64 cacheSize = strtoll(value, &end, 10);
+    if (end == value || *end) {
+        return;
+    }
+    sqlite3_mutex_enter(shared->lock);
+    if (!shared->cacheFixed) {
+        shared->cacheSize = cacheSize;
+        if (!shared->pages.empty()) {
+            zip_cache_evict(shared, zip_cache_limit(shared,
+                    static_cast<int>(shared->pages.begin()->second.first.size())));
+        }
+    }
+    sqlite3_mutex_leave(shared->lock);
+}
+
+static void zip_cache_put(ZipShared *shared, sqlite3_int64 offset, const void *buf, int amount) {
+    sqlite3_mutex_enter(shared->lock);
+    size_t limit = zip_cache_limit(shared, amount);
+    if (limit > 0) {
+        auto entry = shared->pages.find(offset);
+        if (shared->pages.end() != entry) {
+            entry->second.first.assign(static_cast<const char *>(buf), static_cast<size_t>(amount));
+            shared->lru.splice(shared->lru.begin(), shared->lru, entry->second.second);
+        } else {
+            zip_cache_evict(shared, limit - 1);
+            shared->lru.push_front(offset);
+            auto &page = shared->pages[offset];
+            page.first.assign(static_cast<const char *>(buf), static_cast<size_t>(amount));
+            page.second = shared->lru.begin();
+        }
+    }
+    sqlite3_mutex_leave(shared->lock);
+}
+
+static void zip_cache_truncate(ZipShared *shared, sqlite3_int64 size) {
+    sqlite3_mutex_enter(shared->lock);
+    for (auto it = shared->lru.begin(); it != shared->lru.end();) {
+        if (*it >= size) {
+            shared->pages.erase(*it);
+            it = shared->lru.erase(it);
+        } else {
+            ++it;
+        }
+    }
+    sqlite3_mutex_leave(shared->lock);
+}
+
+static bool zip_holes(ZipShared *shared) {
+    return __atomic_load_n(&shared->holes, __ATOMIC_RELAXED);
+}
+
+static bool punch_hole(ZipShared *shared, sqlite3_int64 offset, sqlite3_int64 length) {
+    if (shared->fd < 0) {
+        return false;
+    }
+#if defined(__ANDROID__) && __ANDROID_API__ < 21
+    // bionic has no fallocate wrapper before API 21, only 32-bit ABIs build for it: both ARM EABI and x86
+    // take each 64-bit argument as a low/high pair of words
+    long ret = syscall(__NR_fallocate, shared->fd, FALLOC_FL_PUNCH_HOLE | FALLOC_FL_KEEP_SIZE,
+            static_cast<uint32_t>(offset), static_cast<uint32_t>(offset >> 32),
+            static_cast<uint32_t>(length), static_cast<uint32_t>(length >> 32));
+#else
+    int ret = fallocate64(shared->fd, FALLOC_FL_PUNCH_HOLE | FALLOC_FL_KEEP_SIZE, offset, length);
+#endif
+    if (0 == ret) {
+        return true;
+    }
+    int error = errno;
+    if (EOPNOTSUPP == error || ENOSYS == error) {
+        __atomic_store_n(&shared->holes, false, __ATOMIC_RELAXED);
+    }
+    sqlite3_log(SQLITE_IOERR, "deflate vfs: cannot punch a hole in %s, errno %d", shared->path.c_str(), error);
+    return false;
+}
+
+static bool is_page(ZipFile *file, int amount, sqlite3_int64 offset) {
+    // page 1 and the partial header reads are never compressed
+    return file->shared && amount >= ZIP_MIN_PAGE && offset > 0 && 0 == offset % amount;
+}
+
+static char *zip_scratch(ZipFile *file, size_t size) {
+    if (file->scratchSize < size) {
+        char *scratch = static_cast<char *>(realloc(file->scratch, size));
+        if (!scratch) {
+            return nullptr;
+        }
+        file->scratch = scratch;
+        file->scratchSize = size;
+    }
+    return file->scratch;
+}
+
+static int zip_close(sqlite3_file *pFile) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    int ret = file->real->pMethods->xClose(file->real);
+    if (file->shared) {
+        zip_shared_unref(file->shared);
+    }
+    free(file->scratch);
+    return ret;
+}
+
+static int zip_read(sqlite3_file *pFile, void *buf, int amount, sqlite3_int64 offset) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    if (!is_page(file, amount, offset)) {
+        return file->real->pMethods->xRead(file->real, buf, amount, offset);
+    }
+    if (zip_cache_get(file->shared, offset, buf, amount)) {
+        return SQLITE_OK;
+    }
+    int ret = file->real->pMethods->xRead(file->real, buf, amount, offset);
+    if (SQLITE_OK != ret) {
+        return ret;
+    }
+    unsigned char *page = static_cast<unsigned char *>(buf);
+    if (ZIP_MAGIC_0 == page[0] && ZIP_MAGIC_1 == page[1]) {
+        uLong length = (uLong(page[4]) << 24) | (uLong(page[5]) << 16) | (uLong(page[6]) << 8) | page[7];
+        if (length > static_cast<uLong>(amount - ZIP_HEADER)) {
+            return SQLITE_CORRUPT;
+        }
+        char *scratch = zip_scratch(file, length);
+        if (!scratch) {
+            return SQLITE_IOERR_NOMEM;
+        }
+        memcpy(scratch, page + ZIP_HEADER, length);
+        uLongf inflated = static_cast<uLongf>(amount);
+        if (Z_OK != uncompress(page, &inflated, reinterpret_cast<Bytef *>(scratch), length)
+                || inflated != static_cast<uLongf>(amount)) {
+            return SQLITE_CORRUPT;
+        }
+    }
+    zip_cache_put(file->shared, offset, buf, amount);
+    return SQLITE_OK;
+}
+
+static int zip_write(sqlite3_file *pFile, const void *buf, int amount, sqlite3_int64 offset) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    if (!is_page(file, amount, offset)) {
+        return file->real->pMethods->xWrite(file->real, buf, amount, offset);
+    }
+    sqlite3_int64 size = 0;
+    int ret = file->real->pMethods->xFileSize(file->real, &size);
+    if (SQLITE_OK != ret) {
+        return ret;
+    }
+    // extending the file leaves the rest of the slot unallocated, rewriting a slot needs a hole punched
+    bool extend = size < offset + amount;
+    uLongf length = compressBound(static_cast<uLong>(amount));
+    char *scratch = zip_scratch(file, ZIP_HEADER + length);
+    if (!scratch) {
+        return SQLITE_IOERR_NOMEM;
+    }
+    sqlite3_int64 stored = amount;
+    if ((extend || zip_holes(file->shared)) && Z_OK == compress2(reinterpret_cast<Bytef *>(scratch + ZIP_HEADER),
+            &length, static_cast<const Bytef *>(buf), static_cast<uLong>(amount), file->level)) {
+        stored = (ZIP_HEADER + length + ZIP_BLOCK - 1) / ZIP_BLOCK * ZIP_BLOCK;
+    }
+    if (stored < amount) {
+        scratch[0] = static_cast<char>(ZIP_MAGIC_0);
+        scratch[1] = static_cast<char>(ZIP_MAGIC_1);
+        scratch[2] = 0;
+        scratch[3] = 0;
+        scratch[4] = static_cast<char>(length >> 24);
+        scratch[5] = static_cast<char>(length >> 16);
+        scratch[6] = static_cast<char>(length >> 8);
+        scratch[7] = static_cast<char>(length);
+        ret = file->real->pMethods->xWrite(file->real, scratch, static_cast<int>(ZIP_HEADER + length), offset);
+        if (SQLITE_OK == ret && extend) {
+            ret = file->real->pMethods->xTruncate(file->real, offset + amount);
+        } else if (SQLITE_OK == ret && !punch_hole(file->shared, offset + stored, amount - stored)) {
+            // the slot keeps its full size on disk anyway, storing the page as is saves inflating it
+            ret = file->real->pMethods->xWrite(file->real, buf, amount, offset);
+        }
+    } else {
+        ret = file->real->pMethods->xWrite(file->real, buf, amount, offset);
+    }
+    if (SQLITE_OK == ret) {
+        zip_cache_put(file->shared, offset, buf, amount);
+    } else {
+        zip_cache_truncate(file->shared, offset);
+    }
+    return ret;
+}
+
+static int zip_truncate(sqlite3_file *pFile, sqlite3_int64 size) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    if (file->shared) {
+        zip_cache_truncate(file->shared, size);
+    }
+    return file->real->pMethods->xTruncate(file->real, size);
+}
+
+static int zip_sync(sqlite3_file *pFile, int flags) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xSync(file->real, flags);
+}
+
+static int zip_file_size(sqlite3_file *pFile, sqlite3_int64 *size) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xFileSize(file->real, size);
+}
+
+static int zip_lock(sqlite3_file *pFile, int lock) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xLock(file->real, lock);
+}
+
+static int zip_unlock(sqlite3_file *pFile, int lock) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xUnlock(file->real, lock);
+}
+
+static int zip_check_reserved_lock(sqlite3_file *pFile, int *out) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xCheckReservedLock(file->real, out);
+}
+
+static int zip_file_control(sqlite3_file *pFile, int op, void *arg) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    if (SQLITE_FCNTL_PRAGMA == op && file->shared) {
+        // the inflated page cache tracks the connection's page cache size
+        char **pragma = static_cast<char **>(arg);
+        if (pragma[2] && 0 == sqlite3_stricmp(pragma[1], "cache_size")) {
+            zip_cache_resize(file->shared, pragma[2]);
+        }
+    }
+    return file->real->pMethods->xFileControl(file->real, op, arg);
+}
+
+static int zip_sector_size(sqlite3_file *pFile) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xSectorSize(file->real);
+}
+
+static int zip_device_characteristics(sqlite3_file *pFile) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xDeviceCharacteristics(file->real);
+}
+
+static int zip_shm_map(sqlite3_file *pFile, int region, int size, int extend, void volatile **out) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xShmMap(file->real, region, size, extend, out);
+}
+
+static int zip_shm_lock(sqlite3_file *pFile, int offset, int n, int flags) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xShmLock(file->real, offset, n, flags);
+}
+
+static void zip_shm_barrier(sqlite3_file *pFile) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    file->real->pMethods->xShmBarrier(file->real);
+}
+
+static int zip_shm_unmap(sqlite3_file *pFile, int deleteFlag) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    return file->real->pMethods->xShmUnmap(file->real, deleteFlag);
+}
+
+static int zip_fetch(sqlite3_file *pFile, sqlite3_int64 offset, int amount, void **out) {
+    // mapped pages would expose the compressed bytes
+    *out = nullptr;
+    return SQLITE_OK;
+}
+
+static int zip_unfetch(sqlite3_file *pFile, sqlite3_int64 offset, void *p) {
+    return SQLITE_OK;
+}
+
+static const sqlite3_io_methods gZipIo = {
+        3,
+        zip_close,
+        zip_read,
+        zip_write,
+        zip_truncate,
+        zip_sync,
+        zip_file_size,
+        zip_lock,
+        zip_unlock,
+        zip_check_reserved_lock,
+        zip_file_control,
+        zip_sector_size,
+        zip_device_characteristics,
+        zip_shm_map,
+        zip_shm_lock,
+        zip_shm_barrier,
+        zip_shm_unmap,
+        zip_fetch,
+        zip_unfetch
+};
+
+static sqlite3_vfs *zip_base(sqlite3_vfs *vfs) {
+    return static_cast<sqlite3_vfs *>(vfs->pAppData);
+}
+
+static int zip_open(sqlite3_vfs *vfs, const char *name, sqlite3_file *pFile, int flags, int *outFlags) {
+    ZipFile *file = reinterpret_cast<ZipFile *>(pFile);
+    memset(file, 0, sizeof(ZipFile));
+    file->real = reinterpret_cast<sqlite3_file *>(file + 1);
+    int ret = zip_base(vfs)->xOpen(zip_base(vfs), name, file->real, flags, outFlags);
+    if (SQLITE_OK != ret) {
+        return ret;
+    }
+    if (name && (flags & SQLITE_OPEN_MAIN_DB)) {
+        sqlite3_int64 level = sqlite3_uri_int64(name, "deflate_level", Z_DEFAULT_COMPRESSION);
+        bool fixed = nullptr != sqlite3_uri_parameter(name, "deflate_cache");
+        sqlite3_int64 cache = fixed ? sqlite3_uri_int64(name, "deflate_cache", 0) : ZIP_DEFAULT_CACHE;
+        file->level = level < Z_DEFAULT_COMPRESSION || level > Z_BEST_COMPRESSION
+                ? Z_DEFAULT_COMPRESSION : static_cast<int>(level);
+        file->shared = zip_shared_ref(name, fixed && cache < 0 ? 0 : cache, fixed,
+                0 != (flags & SQLITE_OPEN_READWRITE));
+    }
+    pFile->pMethods = &gZipIo;
+    return SQLITE_OK;
+}
+
+static int zip_delete(sqlite3_vfs *vfs, const char *name, int syncDir) {
+    return zip_base(vfs)->xDelete(zip_base(vfs), name, syncDir);
+}
+
+static int zip_access(sqlite3_vfs *vfs, const char *name, int flags, int *out) {
+    return zip_base(vfs)->xAccess(zip_base(vfs), name, flags, out);
+}
+
+static int zip_full_pathname(sqlite3_vfs *vfs, const char *name, int size, char *out) {
+    return zip_base(vfs)->xFullPathname(zip_base(vfs), name, size, out);
+}
+
+static void *zip_dl_open(sqlite3_vfs *vfs, const char *path) {
+    return zip_base(vfs)->xDlOpen(zip_base(vfs), path);
+}
+
+static void zip_dl_error(sqlite3_vfs *vfs, int size, char *out) {
+    zip_base(vfs)->xDlError(zip_base(vfs), size, out);
+}
+
+static void (*zip_dl_sym(sqlite3_vfs *vfs, void *handle, const char *symbol))(void) {
+    return zip_base(vfs)->xDlSym(zip_base(vfs), handle, symbol);
+}
+
+static void zip_dl_close(sqlite3_vfs *vfs, void *handle) {
+    zip_base(vfs)->xDlClose(zip_base(vfs), handle);
+}
+
+static int zip_randomness(sqlite3_vfs *vfs, int size, char *out) {
+    return zip_base(vfs)->xRandomness(zip_base(vfs), size, out);
+}
+
+static int zip_sleep(sqlite3_vfs *vfs, int micros) {
+    return zip_base(vfs)->xSleep(zip_base(vfs), micros);
+}
+
+static int zip_current_time(sqlite3_vfs *vfs, double *out) {
+    return zip_base(vfs)->xCurrentTime(zip_base(vfs), out);
+}
+
+static int zip_get_last_error(sqlite3_vfs *vfs, int size, char *out) {
+    return zip_base(vfs)->xGetLastError(zip_base(vfs), size, out);
+}
+
+static int zip_current_time_int64(sqlite3_vfs *vfs, sqlite3_int64 *out) {
+    return zip_base(vfs)->xCurrentTimeInt64(zip_base(vfs), out);
+}
+
+int register_deflate_vfs() {
+    sqlite3_vfs *base = sqlite3_vfs_find(nullptr);
+    if (!base) {
+        return SQLITE_ERROR;
+    }
+    gZipLock = sqlite3_mutex_alloc(SQLITE_MUTEX_FAST);
+    memset(&gZipVfs, 0, sizeof(gZipVfs));
+    gZipVfs.iVersion = 2;
+    gZipVfs.szOsFile = static_cast<int>(sizeof(ZipFile)) + base->szOsFile;
+    gZipVfs.mxPathname = base->mxPathname;
+    gZipVfs.zName = DEFLATE_VFS_NAME;
+    gZipVfs.pAppData = base;
+    gZipVfs.xOpen = zip_open;
+    gZipVfs.xDelete = zip_delete;
+    gZipVfs.xAccess = zip_access;
+    gZipVfs.xFullPathname = zip_full_pathname;
+    gZipVfs.xDlOpen = zip_dl_open;
+    gZipVfs.xDlError = zip_dl_error;
+    gZipVfs.xDlSym = zip_dl_sym;
+    gZipVfs.xDlClose = zip_dl_close;
+    gZipVfs.xRandomness = zip_randomness;
+    gZipVfs.xSleep = zip_sleep;
+    gZipVfs.xCurrentTime = zip_current_time;
+    gZipVfs.xGetLastError = zip_get_last_error;
+    gZipVfs.xCurrentTimeInt64 = zip_current_time_int64;
+    return sqlite3_vfs_register(&gZipVfs, 0);
+}
@@ -0,0 +1,11 @@
+#ifndef SQLITE3_DEFLATE_VFS_H
+#define SQLITE3_DEFLATE_VFS_H
+
+#define DEFLATE_VFS_NAME "sqlite4a-deflate"
+
+/**
+ * Registers a VFS shim over the default VFS that stores main database pages deflated.
+ */
+int register_deflate_vfs();
+
+#endif // SQLITE3_DEFLATE_VFS_H
@@ -1,7 +1,18 @@
 #include <jni.h>
+#include <cstring>
+#include <cerrno>
+#include <ctime>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+#include <deque>
 #include <string>
+#include <unordered_map>
+#include <vector>
 #include <android/log.h>
 #include "sqlite3.h"
+#include "sqlite3_deflate_vfs.h"
 
 #ifndef LOG_TAG
 #define LOG_TAG "sqlite3_jni"
@@ -10,15 +21,48 @@
 
 static JavaVM *gJavaVm = nullptr;
 
+static struct {
+    jclass clazz;
+} gString;
+
 static struct {
     jclass clazz;
 } gSQLiteException;
 
+static struct {
+    jclass clazz;
+} gSQLiteBusyException;
+
 static struct {
     jclass clazz;
     jmethodID method;
 } gTrace;
 
+static struct {
+    jclass clazz;
+    jmethodID method;
+} gProgress;
+
+static struct {
+    jclass clazz;
+    jmethodID constructor;
+} gMetrics;
+
+static struct {
+    jclass clazz;
+    jmethodID constructor;
+} gChanges;
+
+static struct {
+    jclass clazz;
+    jmethodID method;
+} gChangeListener;
+
+static struct {
+    jclass clazz;
+    jmethodID method;
+} gBusyHandler;
+
 static struct {
     jclass clazz;
     jmethodID method;
@@ -27,17 +71,457 @@ static struct {
 static struct {
     jclass clazz;
     jmethodID method;
+} gCollationKey;
+
+static struct {
+    jclass clazz;
+    jmethodID method;
+    jmethodID fastMethod;
 } gFunc;
 
+static struct {
+    jclass clazz;
+    jmethodID create;
+    jmethodID step;
+    jmethodID fastStep;
+    jmethodID finish;
+} gAggregate;
+
+static const int FAST_PATH_ARGS = 3;
+
+static const int METRIC_COUNT = 0;
+static const int METRIC_TOTAL_NANOS = 1;
+static const int METRIC_MAX_NANOS = 2;
+static const int METRIC_VM_STEPS = 3;
+static const int METRIC_FULLSCAN_STEPS = 4;
+static const int METRIC_SORTS = 5;
+static const int METRIC_AUTOINDEXES = 6;
+static const int METRIC_HISTOGRAM = 7;
+static const int METRIC_BUCKETS = 48;
+static const int METRIC_FIELDS = METRIC_HISTOGRAM + METRIC_BUCKETS;
+
+static const size_t MAX_WRITE_TARGETS = 256;
+
+// updated with __atomic builtins outside metricsLock, entries are zeroed rather than erased on reset so a recorder
+// never writes to a freed entry
+struct SQLiteMetric {
+    jlong values[METRIC_FIELDS];
+
+    SQLiteMetric() {
+        memset(values, 0, sizeof(values));
+    }
+};
+
 struct SQLiteDb {
     sqlite3 *handle = nullptr;
     jobject trace = nullptr;
+    jobject progress = nullptr;
+    sqlite3_mutex *metricsLock = nullptr;
+    size_t maxMetrics = 0;
+    std::unordered_map<std::string, SQLiteMetric> metrics;
+    std::string metricsKey;
+    jlong metricsDropped = 0;
+    std::unordered_map<int, sqlite3_stmt *> txnStmts;
+    jobject busyHandler = nullptr;
+    int busyInitialDelayMs = 1;
+    int busyMaxDelayMs = 100;
+    int busyTimeoutMs = 2500;
+    jlong busyStart = 0;
+    jlong busyEvents = 0;
+    jlong busyRetries = 0;
+    jlong busyWaitNanos = 0;
+    jlong busyTimeouts = 0;
+    jobject changeListener = nullptr;
+    size_t maxChanges = 0;
+    bool changesTruncated = false;
+    jint lastChangeTable = -1;
+    std::vector<std::string> changeTables;
+    std::vector<jint> changeEntries;
+    std::vector<jlong> changeRowids;
+    // rows the update hook reported since the last statement finished, and the total change count then
+    jlong hookRows = 0;
+    int seenTotalChanges = 0;
+    // tables the authorizer saw a statement compile writes to, by statement text
+    std::vector<std::pair<std::string, std::string>> compileWrites;
+    std::unordered_map<std::string, std::vector<std::pair<std::string, std::string>>> writeTargets;
 
     SQLiteDb(sqlite3 *db) {
         handle = db;
     }
 };
 
+// a collation operand as SQLite passes it, so cached keys are looked up without copying it
+struct CollationText {
+    const char *data;
+    size_t size;
+};
+
+struct CollationTextHash {
+    size_t operator()(const CollationText &text) const {
+        // FNV-1a
+        size_t hash = 2166136261u;
+        for (size_t i = 0; i < text.size; ++i) {
+            hash = (hash ^ static_cast<unsigned char>(text.data[i])) * 16777619u;
+        }
+        return hash;
+    }
+};
+
+struct CollationTextEqual {
+    bool operator()(const CollationText &lhs, const CollationText &rhs) const {
+        return lhs.size == rhs.size && 0 == memcmp(lhs.data, rhs.data, lhs.size);
+    }
+};
+
+struct CollationSlot {
+    std::string text;
+    std::string key;
+    bool used = false;
+};
+
+struct SQLiteCollation {
+    jobject keyFunc = nullptr;
+    size_t maxKeys = 0;
+    size_t hand = 0;
+    // slots never move, the map keys point into their text
+    std::deque<CollationSlot> slots;
+    std::unordered_map<CollationText, size_t, CollationTextHash, CollationTextEqual> keys;
+
+    SQLiteCollation(jobject func, size_t max) {
+        keyFunc = func;
+        // both operands of a comparison must fit
+        maxKeys = max < 2 ? 2 : max;
+    }
+};
+
+struct SQLiteBlob {
+    sqlite3_blob *handle = nullptr;
+    sqlite3 *db = nullptr;
+
+    SQLiteBlob(sqlite3_blob *blob, sqlite3 *owner) {
+        handle = blob;
+        db = owner;
+    }
+};
+
+static sqlite3_mem_methods gDefaultMem;
+
+static sqlite3_int64 gHeapUsed = 0;
+
+static sqlite3_int64 gHardHeapLimit = 0;
+
+static bool heap_reserve(int size) {
+    sqlite3_int64 limit = __atomic_load_n(&gHardHeapLimit, __ATOMIC_RELAXED);
+    if (limit > 0 && __atomic_load_n(&gHeapUsed, __ATOMIC_RELAXED) + size > limit) {
+        return false;
+    }
+    return true;
+}
+
+static void *limited_malloc(int size) {
+    if (!heap_reserve(gDefaultMem.xRoundup(size))) {
+        return nullptr;
+    }
+    void *p = gDefaultMem.xMalloc(size);
+    if (p) {
+        __atomic_add_fetch(&gHeapUsed, gDefaultMem.xSize(p), __ATOMIC_RELAXED);
+    }
+    return p;
+}
+
+static void limited_free(void *p) {
+    __atomic_sub_fetch(&gHeapUsed, gDefaultMem.xSize(p), __ATOMIC_RELAXED);
+    gDefaultMem.xFree(p);
+}
+
+static void *limited_realloc(void *p, int size) {
+    int old = gDefaultMem.xSize(p);
+    int grow = gDefaultMem.xRoundup(size) - old;
+    if (grow > 0 && !heap_reserve(grow)) {
+        return nullptr;
+    }
+    void *q = gDefaultMem.xRealloc(p, size);
+    if (q) {
+        __atomic_add_fetch(&gHeapUsed, gDefaultMem.xSize(q) - old, __ATOMIC_RELAXED);
+    }
+    return q;
+}
+
+static void install_heap_limit() {
+    if (SQLITE_OK == sqlite3_config(SQLITE_CONFIG_GETMALLOC, &gDefaultMem)) {
+        sqlite3_mem_methods limited = gDefaultMem;
+        limited.xMalloc = limited_malloc;
+        limited.xFree = limited_free;
+        limited.xRealloc = limited_realloc;
+        sqlite3_config(SQLITE_CONFIG_MALLOC, &limited);
+    }
+}
+
+static const char *MEM_VFS_NAME = "sqlite4a-mem";
+
+struct MemImage {
+    const char *data;
+    sqlite3_int64 size;
+    std::string owned;
+    bool writable;
+    int refs;
+    void *mapping;
+    size_t mappingSize;
+    jobject buffer;
+
+    MemImage(const char *data, sqlite3_int64 size)
+            : data(data), size(size), writable(false), refs(1), mapping(nullptr), mappingSize(0), buffer(nullptr) {}
+
+    MemImage() : data(nullptr), size(0), writable(true), refs(1), mapping(nullptr), mappingSize(0), buffer(nullptr) {}
+};
+
+struct MemFile {
+    sqlite3_file base;
+    MemImage *image;
+};
+
+static sqlite3_vfs gMemVfs;
+
+static sqlite3_mutex *gMemLock = nullptr;
+
+static std::unordered_map<std::string, MemImage *> gMemImages;
+
+static sqlite3_int64 gMemNextId = 0;
+
+static std::string mem_register(MemImage *image) {
+    sqlite3_mutex_enter(gMemLock);
+    std::string name = "/" + std::string(MEM_VFS_NAME) + "/" + std::to_string(++gMemNextId);
+    gMemImages[name] = image;
+    sqlite3_mutex_leave(gMemLock);
+    return name;
+}
+
+static void mem_unref(MemImage *image) {
+    sqlite3_mutex_enter(gMemLock);
+    bool last = 0 == --image->refs;
+    sqlite3_mutex_leave(gMemLock);
+    if (!last) {
+        return;
+    }
+    if (image->mapping) {
+        munmap(image->mapping, image->mappingSize);
+    }
+    JNIEnv *env;
+    if (image->buffer && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        env->DeleteGlobalRef(image->buffer);
+    }
+    delete image;
+}
+
+// the image stays alive until the last connection reading it is closed
+static void mem_unregister(const std::string &name) {
+    sqlite3_mutex_enter(gMemLock);
+    auto entry = gMemImages.find(name);
+    MemImage *image = gMemImages.end() == entry ? nullptr : entry->second;
+    if (image) {
+        gMemImages.erase(entry);
+    }
+    sqlite3_mutex_leave(gMemLock);
+    if (image) {
+        mem_unref(image);
+    }
+}
+
+static int mem_close(sqlite3_file *file) {
+    mem_unref(reinterpret_cast<MemFile *>(file)->image);
+    return SQLITE_OK;
+}
+
+static int mem_read(sqlite3_file *file, void *buf, int amount, sqlite3_int64 offset) {
+    MemImage *image = reinterpret_cast<MemFile *>(file)->image;
+    sqlite3_int64 available = offset < image->size ? image->size - offset : 0;
+    if (available >= amount) {
+        memcpy(buf, image->data + offset, static_cast<size_t>(amount));
+        return SQLITE_OK;
+    }
+    if (available > 0) {
+        memcpy(buf, image->data + offset, static_cast<size_t>(available));
+    }
+    memset(static_cast<char *>(buf) + available, 0, static_cast<size_t>(amount - available));
+    return SQLITE_IOERR_SHORT_READ;
+}
+
+static int mem_write(sqlite3_file *file, const void *buf, int amount, sqlite3_int64 offset) {
+    MemImage *image = reinterpret_cast<MemFile *>(file)->image;
+    if (!image->writable) {
+        return SQLITE_READONLY;
+    }
+    if (offset + amount > static_cast<sqlite3_int64>(image->owned.size())) {
+        image->owned.resize(static_cast<size_t>(offset + amount));
+    }
+    memcpy(&image->owned[static_cast<size_t>(offset)], buf, static_cast<size_t>(amount));
+    image->data = image->owned.data();
+    image->size = image->owned.size();
+    return SQLITE_OK;
+}
+
+static int mem_truncate(sqlite3_file *file, sqlite3_int64 size) {
+    MemImage *image = reinterpret_cast<MemFile *>(file)->image;
+    if (!image->writable) {
+        return SQLITE_READONLY;
+    }
+    if (size < image->size) {
+        image->owned.resize(static_cast<size_t>(size));
+        image->data = image->owned.data();
+        image->size = size;
+    }
+    return SQLITE_OK;
+}
+
+static int mem_sync(sqlite3_file *file, int flags) {
+    return SQLITE_OK;
+}
+
+static int mem_file_size(sqlite3_file *file, sqlite3_int64 *size) {
+    *size = reinterpret_cast<MemFile *>(file)->image->size;
+    return SQLITE_OK;
+}
+
+static int mem_lock(sqlite3_file *file, int lock) {
+    return SQLITE_OK;
+}
+
+static int mem_check_reserved_lock(sqlite3_file *file, int *out) {
+    *out = 0;
+    return SQLITE_OK;
+}
+
+static int mem_file_control(sqlite3_file *file, int op, void *arg) {
+    return SQLITE_NOTFOUND;
+}
+
+static int mem_sector_size(sqlite3_file *file) {
+    return 512;
+}
+
+static int mem_device_characteristics(sqlite3_file *file) {
+    if (reinterpret_cast<MemFile *>(file)->image->writable) {
+        return SQLITE_IOCAP_ATOMIC | SQLITE_IOCAP_SAFE_APPEND | SQLITE_IOCAP_POWERSAFE_OVERWRITE;
+    }
+    return SQLITE_IOCAP_IMMUTABLE;
+}
+
+static int mem_fetch(sqlite3_file *file, sqlite3_int64 offset, int amount, void **out) {
+    MemImage *image = reinterpret_cast<MemFile *>(file)->image;
+    // writable images are reallocated on growth, so only read-only ones hand out page pointers
+    if (!image->writable && offset + amount <= image->size) {
+        *out = const_cast<char *>(image->data + offset);
+    } else {
+        *out = nullptr;
+    }
+    return SQLITE_OK;
+}
+
+static int mem_unfetch(sqlite3_file *file, sqlite3_int64 offset, void *p) {
+    return SQLITE_OK;
+}
+
+static const sqlite3_io_methods gMemIo = {
+        3,
+        mem_close,
+        mem_read,
+        mem_write,
+        mem_truncate,
+        mem_sync,
+        mem_file_size,
+        mem_lock,
+        mem_lock,
+        mem_check_reserved_lock,
+        mem_file_control,
+        mem_sector_size,
+        mem_device_characteristics,
+        nullptr,
+        nullptr,
+        nullptr,
+        nullptr,
+        mem_fetch,
+        mem_unfetch
+};
+
+static int mem_open(sqlite3_vfs *vfs, const char *name, sqlite3_file *file, int flags, int *outFlags) {
+    file->pMethods = nullptr;
+    if (!name || !(flags & SQLITE_OPEN_MAIN_DB)) {
+        return SQLITE_CANTOPEN;
+    }
+    sqlite3_mutex_enter(gMemLock);
+    auto entry = gMemImages.find(name);
+    MemImage *image = gMemImages.end() == entry ? nullptr : entry->second;
+    if (image && (image->writable || !(flags & SQLITE_OPEN_READWRITE))) {
+        ++image->refs;
+    } else {
+        image = nullptr;
+    }
+    sqlite3_mutex_leave(gMemLock);
+    if (!image) {
+        return SQLITE_CANTOPEN;
+    }
+    reinterpret_cast<MemFile *>(file)->image = image;
+    file->pMethods = &gMemIo;
+    if (outFlags) {
+        *outFlags = flags;
+    }
+    return SQLITE_OK;
+}
+
+static int mem_delete(sqlite3_vfs *vfs, const char *name, int syncDir) {
+    return SQLITE_OK;
+}
+
+static int mem_access(sqlite3_vfs *vfs, const char *name, int flags, int *out) {
+    *out = 0;
+    return SQLITE_OK;
+}
+
+static int mem_full_pathname(sqlite3_vfs *vfs, const char *name, int size, char *out) {
+    sqlite3_snprintf(size, out, "%s", name);
+    return SQLITE_OK;
+}
+
+static int mem_randomness(sqlite3_vfs *vfs, int size, char *out) {
+    sqlite3_vfs *base = static_cast<sqlite3_vfs *>(vfs->pAppData);
+    return base->xRandomness(base, size, out);
+}
+
+static int mem_sleep(sqlite3_vfs *vfs, int micros) {
+    sqlite3_vfs *base = static_cast<sqlite3_vfs *>(vfs->pAppData);
+    return base->xSleep(base, micros);
+}
+
+static int mem_current_time(sqlite3_vfs *vfs, double *out) {
+    sqlite3_vfs *base = static_cast<sqlite3_vfs *>(vfs->pAppData);
+    return base->xCurrentTime(base, out);
+}
+
+static int mem_current_time_int64(sqlite3_vfs *vfs, sqlite3_int64 *out) {
+    sqlite3_vfs *base = static_cast<sqlite3_vfs *>(vfs->pAppData);
+    return base->xCurrentTimeInt64(base, out);
+}
+
+static void install_mem_vfs() {
+    sqlite3_vfs *base = sqlite3_vfs_find(nullptr);
+    gMemLock = sqlite3_mutex_alloc(SQLITE_MUTEX_FAST);
+    memset(&gMemVfs, 0, sizeof(gMemVfs));
+    gMemVfs.iVersion = 2;
+    gMemVfs.szOsFile = sizeof(MemFile);
+    gMemVfs.mxPathname = 256;
+    gMemVfs.zName = MEM_VFS_NAME;
+    gMemVfs.pAppData = base;
+    gMemVfs.xOpen = mem_open;
+    gMemVfs.xDelete = mem_delete;
+    gMemVfs.xAccess = mem_access;
+    gMemVfs.xFullPathname = mem_full_pathname;
+    gMemVfs.xRandomness = mem_randomness;
+    gMemVfs.xSleep = mem_sleep;
+    gMemVfs.xCurrentTime = mem_current_time;
+    gMemVfs.xCurrentTimeInt64 = mem_current_time_int64;
+    sqlite3_vfs_register(&gMemVfs, 0);
+}
+
 JNIEXPORT jint JNICALL
 JNI_OnLoad(JavaVM *vm, void *reserved) {
     JNIEnv *env;
@@ -45,25 +529,203 @@ JNI_OnLoad(JavaVM *vm, void *reserved) {
         return JNI_ERR;
     }
     gJavaVm = vm;
-    //gString.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("java/lang/String")));
+    gString.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("java/lang/String")));
     gSQLiteException.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteException")));
+    gSQLiteBusyException.clazz = static_cast<jclass>(
+            env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteBusyException")));
     gTrace.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteDb$Trace")));
     gTrace.method = env->GetMethodID(gTrace.clazz, "trace", "(Ljava/lang/String;)V");
+    gMetrics.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteMetrics")));
+    gMetrics.constructor = env->GetMethodID(gMetrics.clazz, "<init>", "(Ljava/lang/String;[J)V");
+    gChanges.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteChanges")));
+    gChanges.constructor = env->GetMethodID(gChanges.clazz, "<init>", "([Ljava/lang/String;[I[JZ)V");
+    gChangeListener.clazz = static_cast<jclass>(
+            env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteDb$ChangeListener")));
+    gChangeListener.method = env->GetMethodID(gChangeListener.clazz, "onChanges", "(Lsqlite4a/SQLiteChanges;)V");
+    gBusyHandler.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteDb$BusyHandler")));
+    gBusyHandler.method = env->GetMethodID(gBusyHandler.clazz, "onBusy", "(IJ)Z");
+    gProgress.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteDb$Progress")));
+    gProgress.method = env->GetMethodID(gProgress.clazz, "onProgress", "()Z");
     gComparator.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("java/util/Comparator")));
     gComparator.method = env->GetMethodID(gComparator.clazz, "compare", "(Ljava/lang/Object;Ljava/lang/Object;)I");
+    gCollationKey.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/SQLiteDb$CollationKey")));
+    gCollationKey.method = env->GetMethodID(gCollationKey.clazz, "key", "(Ljava/lang/String;)[B");
     gFunc.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/JniFunc")));
     gFunc.method = env->GetMethodID(gFunc.clazz, "call", "(J[J)V");
+    gFunc.fastMethod = env->GetMethodID(gFunc.clazz, "call", "(JIJJJ)V");
+    gAggregate.clazz = static_cast<jclass>(env->NewGlobalRef(env->FindClass("sqlite4a/JniAggregate")));
+    gAggregate.create = env->GetMethodID(gAggregate.clazz, "create", "()Ljava/lang/Object;");
+    gAggregate.step = env->GetMethodID(gAggregate.clazz, "step", "(Ljava/lang/Object;J[J)V");
+    gAggregate.fastStep = env->GetMethodID(gAggregate.clazz, "step", "(Ljava/lang/Object;JIJJJ)V");
+    gAggregate.finish = env->GetMethodID(gAggregate.clazz, "finish", "(Ljava/lang/Object;J)V");
+    install_heap_limit();
     sqlite3_soft_heap_limit64(8 * 1024 * 1024);
     sqlite3_initialize();
+    install_mem_vfs();
+    register_deflate_vfs();
     return JNI_VERSION_1_6;
 }
 
+// a Java exception thrown by a callback is parked here while SQLite unwinds so that no JNI call runs with it
+// pending, the native method that drove SQLite rethrows it in place of its own error
+static thread_local jthrowable tCallbackError = nullptr;
+
+// the connection whose commit hook fired during the current native call
+static thread_local SQLiteDb *tCommitted = nullptr;
+
+static bool park_callback_error(JNIEnv *env) {
+    jthrowable error = env->ExceptionOccurred();
+    if (!error) {
+        return false;
+    }
+    env->ExceptionClear();
+    if (!tCallbackError) {
+        tCallbackError = static_cast<jthrowable>(env->NewGlobalRef(error));
+    }
+    env->DeleteLocalRef(error);
+    return true;
+}
+
+static void clear_changes(SQLiteDb *db) {
+    db->changesTruncated = false;
+    db->lastChangeTable = -1;
+    db->changeTables.clear();
+    db->changeEntries.clear();
+    db->changeRowids.clear();
+}
+
+static void deliver_changes(JNIEnv *env) {
+    SQLiteDb *db = tCommitted;
+    tCommitted = nullptr;
+    if (!sqlite3_get_autocommit(db->handle) || !db->changeListener || db->changeTables.empty()) {
+        // a COMMIT that failed with SQLITE_BUSY left the transaction open, its changes stay buffered until it ends
+        return;
+    }
+    jsize size = static_cast<jsize>(db->changeRowids.size());
+    jobjectArray jtables = env->NewObjectArray(static_cast<jsize>(db->changeTables.size()), gString.clazz, nullptr);
+    for (size_t i = 0; i < db->changeTables.size(); ++i) {
+        jstring jtable = env->NewStringUTF(db->changeTables[i].c_str());
+        env->SetObjectArrayElement(jtables, static_cast<jsize>(i), jtable);
+        env->DeleteLocalRef(jtable);
+    }
+    jintArray jentries = env->NewIntArray(size);
+    env->SetIntArrayRegion(jentries, 0, size, db->changeEntries.data());
+    jlongArray jrowids = env->NewLongArray(size);
+    env->SetLongArrayRegion(jrowids, 0, size, db->changeRowids.data());
+    jobject jchanges = env->NewObject(gChanges.clazz, gChanges.constructor, jtables, jentries, jrowids,
+            db->changesTruncated ? JNI_TRUE : JNI_FALSE);
+    // the listener may write through the connection, those changes start the next batch
+    clear_changes(db);
+    env->CallVoidMethod(db->changeListener, gChangeListener.method, jchanges);
+    env->DeleteLocalRef(jchanges);
+    env->DeleteLocalRef(jrowids);
+    env->DeleteLocalRef(jentries);
+    env->DeleteLocalRef(jtables);
+}
+
+static bool same_table(const std::string &name, const char *schema, const char *table) {
+    if (0 == strcmp("main", schema)) {
+        return name == table;
+    }
+    size_t length = strlen(schema);
+    return name.size() == length + 1 + strlen(table) && 0 == name.compare(0, length, schema)
+            && '.' == name[length] && 0 == name.compare(length + 1, std::string::npos, table);
+}
+
+static jint change_table(SQLiteDb *db, const char *schema, const char *table) {
+    if (db->lastChangeTable >= 0 && same_table(db->changeTables[db->lastChangeTable], schema, table)) {
+        return db->lastChangeTable;
+    }
+    for (size_t i = 0; i < db->changeTables.size(); ++i) {
+        if (same_table(db->changeTables[i], schema, table)) {
+            return db->lastChangeTable = static_cast<jint>(i);
+        }
+    }
+    db->changeTables.push_back(0 == strcmp("main", schema) ? table : std::string(schema) + "." + table);
+    return db->lastChangeTable = static_cast<jint>(db->changeTables.size() - 1);
+}
+
+static void truncate_changes(SQLiteDb *db) {
+    db->changesTruncated = true;
+    std::vector<jint>().swap(db->changeEntries);
+    std::vector<jlong>().swap(db->changeRowids);
+}
+
+static int change_authorizer(void *data, int action, const char *table, const char *column, const char *schema,
+                             const char *trigger) {
+    SQLiteDb *db = static_cast<SQLiteDb *>(data);
+    if ((SQLITE_INSERT == action || SQLITE_UPDATE == action || SQLITE_DELETE == action) && table && schema
+            && 0 != sqlite3_strnicmp("sqlite_", table, 7)) {
+        for (auto &target : db->compileWrites) {
+            if (target.first == schema && target.second == table) {
+                return SQLITE_OK;
+            }
+        }
+        db->compileWrites.emplace_back(schema, table);
+    }
+    return SQLITE_OK;
+}
+
+static void remember_writes(SQLiteDb *db, const char *sql) {
+    if (db->compileWrites.empty()) {
+        return;
+    }
+    if (sql) {
+        if (db->writeTargets.size() >= MAX_WRITE_TARGETS) {
+            db->writeTargets.clear();
+        }
+        db->writeTargets[sql].swap(db->compileWrites);
+    }
+    db->compileWrites.clear();
+}
+
+// the update hook skips WITHOUT ROWID tables and DELETE without WHERE, rows it missed show up in the
+// total change count, the statement's write targets then go into the batch without rows
+static void note_hookless_changes(SQLiteDb *db, sqlite3_stmt *stmt) {
+    const char *sql = sqlite3_sql(stmt);
+    // compiled while stepping, by sqlite3_exec() or after a schema change
+    remember_writes(db, sql);
+    int total = sqlite3_total_changes(db->handle);
+    jlong missing = static_cast<jlong>(total - db->seenTotalChanges) - db->hookRows;
+    db->seenTotalChanges = total;
+    db->hookRows = 0;
+    if (missing <= 0 || !sql) {
+        return;
+    }
+    auto entry = db->writeTargets.find(sql);
+    if (entry == db->writeTargets.end()) {
+        return;
+    }
+    for (auto &target : entry->second) {
+        change_table(db, target.first.c_str(), target.second.c_str());
+    }
+    truncate_changes(db);
+}
+
+// runs once SQLite has returned to a native method, returns true if a Java exception is pending
+static bool finish_call(JNIEnv *env) {
+    if (tCommitted && !env->ExceptionCheck()) {
+        deliver_changes(env);
+    }
+    if (tCallbackError) {
+        if (!env->ExceptionCheck()) {
+            env->Throw(tCallbackError);
+        }
+        env->DeleteGlobalRef(tCallbackError);
+        tCallbackError = nullptr;
+    }
+    return env->ExceptionCheck();
+}
+
 static void throw_sqlite_exception(JNIEnv *env, const char *error, const char *sql = nullptr) {
     std::string message(error);
     if (sql) {
         message += ", while executing: ";
         message += sql;
     }
+    if (finish_call(env)) {
+        return;
+    }
     if (gSQLiteException.clazz) {
         env->ThrowNew(gSQLiteException.clazz, message.c_str());
     } else {
@@ -71,55 +733,455 @@ static void throw_sqlite_exception(JNIEnv *env, const char *error, const char *s
     }
 }
 
-static int java_trace(unsigned mask, void *jfunc, void *p, void *x) {
+static void throw_sqlite_result(JNIEnv *env, int code, const char *message) {
+    code &= 0xff;
+    if ((SQLITE_BUSY == code || SQLITE_LOCKED == code) && gSQLiteBusyException.clazz) {
+        if (!finish_call(env)) {
+            env->ThrowNew(gSQLiteBusyException.clazz, message);
+        }
+    } else {
+        throw_sqlite_exception(env, message);
+    }
+}
+
+static void throw_sqlite_error(JNIEnv *env, sqlite3 *db, const char *sql = nullptr) {
+    std::string message(sqlite3_errmsg(db));
+    if (sql) {
+        message += ", while executing: ";
+        message += sql;
+    }
+    throw_sqlite_result(env, sqlite3_errcode(db), message.c_str());
+}
+
+static bool sql_ident_char(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || '_' == c || '$' == c
+            || (c & 0x80);
+}
+
+// replaces literals with ? and collapses whitespace and comments, so statements built by string concatenation
+// share one metrics entry
+static void normalize_sql(const char *sql, std::string &out) {
+    out.clear();
+    const char *p = sql;
+    while (*p) {
+        char c = *p;
+        if (' ' == c || '\t' == c || '\n' == c || '\r' == c || '\f' == c
+                || ('-' == c && '-' == p[1]) || ('/' == c && '*' == p[1])) {
+            while (*p) {
+                if (' ' == *p || '\t' == *p || '\n' == *p || '\r' == *p || '\f' == *p) {
+                    ++p;
+                } else if ('-' == *p && '-' == p[1]) {
+                    while (*p && '\n' != *p) {
+                        ++p;
+                    }
+                } else if ('/' == *p && '*' == p[1]) {
+                    const char *end = strstr(p + 2, "*/");
+                    p = end ? end + 2 : p + strlen(p);
+                } else {
+                    break;
+                }
+            }
+            if (!out.empty() && *p) {
+                out += ' ';
+            }
+        } else if ('\'' == c || (('x' == c || 'X' == c) && '\'' == p[1])) {
+            // string or blob literal, '' escapes a quote
+            p += '\'' == c ? 1 : 2;
+            while (*p && !('\'' == *p && '\'' != p[1])) {
+                p += '\'' == *p ? 2 : 1;
+            }
+            if (*p) {
+                ++p;
+            }
+            out += '?';
+        } else if ('"' == c || '`' == c || '[' == c) {
+            // quoted identifier
+            char close = '[' == c ? ']' : c;
+            const char *start = p++;
+            while (*p && *p != close) {
+                ++p;
+            }
+            if (*p) {
+                ++p;
+            }
+            out.append(start, static_cast<size_t>(p - start));
+        } else if ((c >= '0' && c <= '9') || ('.' == c && p[1] >= '0' && p[1] <= '9')) {
+            // numeric literal, with exponent or hex digits, a unary sign is part of it
+            size_t sign = out.size();
+            if (sign > 0 && ('-' == out[sign - 1] || '+' == out[sign - 1])) {
+                size_t before = sign - 1;
+                while (before > 0 && ' ' == out[before - 1]) {
+                    --before;
+                }
+                if (0 == before || strchr("(,=<>", out[before - 1])) {
+                    out.resize(sign - 1);
+                }
+            }
+            while (sql_ident_char(*p) || '.' == *p
+                    || (('+' == *p || '-' == *p) && ('e' == p[-1] || 'E' == p[-1]))) {
+                ++p;
+            }
+            out += '?';
+        } else if (sql_ident_char(c) || '?' == c || ':' == c || '@' == c) {
+            // keyword, identifier or parameter, copied whole so their digits are kept
+            const char *start = p++;
+            while (sql_ident_char(*p)) {
+                ++p;
+            }
+            out.append(start, static_cast<size_t>(p - start));
+        } else {
+            out += c;
+            ++p;
+        }
+    }
+}
+
+static void record_metric(SQLiteDb *db, sqlite3_stmt *stmt, sqlite3_int64 nanos) {
+    const char *sql = sqlite3_sql(stmt);
+    jlong vmSteps = sqlite3_stmt_status(stmt, SQLITE_STMTSTATUS_VM_STEP, 1);
+    jlong fullScanSteps = sqlite3_stmt_status(stmt, SQLITE_STMTSTATUS_FULLSCAN_STEP, 1);
+    jlong sorts = sqlite3_stmt_status(stmt, SQLITE_STMTSTATUS_SORT, 1);
+    jlong autoIndexes = sqlite3_stmt_status(stmt, SQLITE_STMTSTATUS_AUTOINDEX, 1);
+    if (!sql) {
+        return;
+    }
+    int bucket = nanos > 0 ? 64 - __builtin_clzll(static_cast<unsigned long long>(nanos)) : 0;
+    if (bucket >= METRIC_BUCKETS) {
+        bucket = METRIC_BUCKETS - 1;
+    }
+    // the key buffer is only touched by the thread stepping the connection
+    normalize_sql(sql, db->metricsKey);
+    jlong *values = nullptr;
+    sqlite3_mutex_enter(db->metricsLock);
+    auto entry = db->metrics.find(db->metricsKey);
+    if (entry != db->metrics.end()) {
+        values = entry->second.values;
+    } else if (db->metrics.size() < db->maxMetrics) {
+        // map nodes never move, the pointer stays valid after the lock is released
+        values = db->metrics.emplace(db->metricsKey, SQLiteMetric()).first->second.values;
+    }
+    sqlite3_mutex_leave(db->metricsLock);
+    if (!values) {
+        __atomic_add_fetch(&db->metricsDropped, 1, __ATOMIC_RELAXED);
+        return;
+    }
+    __atomic_add_fetch(&values[METRIC_COUNT], 1, __ATOMIC_RELAXED);
+    __atomic_add_fetch(&values[METRIC_TOTAL_NANOS], nanos, __ATOMIC_RELAXED);
+    jlong max = __atomic_load_n(&values[METRIC_MAX_NANOS], __ATOMIC_RELAXED);
+    while (nanos > max && !__atomic_compare_exchange_n(&values[METRIC_MAX_NANOS], &max, static_cast<jlong>(nanos),
+            true, __ATOMIC_RELAXED, __ATOMIC_RELAXED)) {
+    }
+    __atomic_add_fetch(&values[METRIC_VM_STEPS], vmSteps, __ATOMIC_RELAXED);
+    __atomic_add_fetch(&values[METRIC_FULLSCAN_STEPS], fullScanSteps, __ATOMIC_RELAXED);
+    __atomic_add_fetch(&values[METRIC_SORTS], sorts, __ATOMIC_RELAXED);
+    __atomic_add_fetch(&values[METRIC_AUTOINDEXES], autoIndexes, __ATOMIC_RELAXED);
+    __atomic_add_fetch(&values[METRIC_HISTOGRAM + bucket], 1, __ATOMIC_RELAXED);
+}
+
+static int java_trace(unsigned mask, void *data, void *p, void *x) {
+    SQLiteDb *db = static_cast<SQLiteDb *>(data);
+    if (mask == SQLITE_TRACE_PROFILE) {
+        if (db->metricsLock) {
+            record_metric(db, static_cast<sqlite3_stmt *>(p), *static_cast<sqlite3_int64 *>(x));
+        }
+        if (db->changeListener) {
+            note_hookless_changes(db, static_cast<sqlite3_stmt *>(p));
+        }
+        return 0;
+    }
     JNIEnv *env;
-    if (jfunc && mask == SQLITE_TRACE_STMT &&
+    if (db->trace && mask == SQLITE_TRACE_STMT &&
         JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
-        jobject func = env->NewLocalRef(static_cast<jobject>(jfunc));
         std::string sql(static_cast<const char *>(x));
         std::string trigger("--");
         if (sql.compare(0, trigger.length(), trigger) != 0) {
             sqlite3_stmt *stmt = static_cast<sqlite3_stmt *>(p);
             char *sqlChars = sqlite3_expanded_sql(stmt);
-            sql = static_cast<const char *>(sqlChars);
-            sqlite3_free(sqlChars);
+            if (sqlChars) {
+                sql = static_cast<const char *>(sqlChars);
+                sqlite3_free(sqlChars);
+            }
         }
-        env->CallVoidMethod(func, gTrace.method, env->NewStringUTF(sql.c_str()));
-        env->DeleteLocalRef(func);
+        jstring jsql = env->NewStringUTF(sql.c_str());
+        env->CallVoidMethod(db->trace, gTrace.method, jsql);
+        env->DeleteLocalRef(jsql);
     }
     return 0;
 }
 
-static int java_compare(void *data, int lhsl, const void *lhsv, int rhsl, const void *rhsv) {
+static int update_trace(SQLiteDb *db) {
+    unsigned mask = (db->trace ? SQLITE_TRACE_STMT : 0u)
+            | (db->metricsLock || db->changeListener ? SQLITE_TRACE_PROFILE : 0u);
+    return sqlite3_trace_v2(db->handle, mask, mask ? java_trace : nullptr, db);
+}
+
+static jlong monotonic_nanos() {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return static_cast<jlong>(now.tv_sec) * 1000000000LL + now.tv_nsec;
+}
+
+static int busy_handler(void *data, int count) {
+    SQLiteDb *db = static_cast<SQLiteDb *>(data);
+    jlong now = monotonic_nanos();
+    if (count == 0) {
+        db->busyStart = now;
+        __atomic_add_fetch(&db->busyEvents, 1, __ATOMIC_RELAXED);
+    }
+    jlong waited = now - db->busyStart;
+    int retry = 0;
+    if (db->busyHandler) {
+        JNIEnv *env;
+        if (!tCallbackError && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+            retry = env->CallBooleanMethod(db->busyHandler, gBusyHandler.method, count, waited / 1000000);
+            if (park_callback_error(env)) {
+                retry = 0;
+            }
+        }
+    } else if (waited < static_cast<jlong>(db->busyTimeoutMs) * 1000000LL) {
+        int shift = count < 16 ? count : 16;
+        jlong delayMs = static_cast<jlong>(db->busyInitialDelayMs) << shift;
+        if (delayMs > db->busyMaxDelayMs) {
+            delayMs = db->busyMaxDelayMs;
+        }
+        jlong remainingMs = db->busyTimeoutMs - waited / 1000000;
+        if (delayMs > remainingMs) {
+            delayMs = remainingMs;
+        }
+        unsigned int jitter = 0;
+        sqlite3_randomness(sizeof(jitter), &jitter);
+        jlong delayUs = delayMs * 500 + (delayMs > 0 ? jitter % (delayMs * 500 + 1) : 0);
+        usleep(static_cast<useconds_t>(delayUs > 0 ? delayUs : 100));
+        retry = 1;
+    }
+    jlong elapsed = monotonic_nanos() - now;
+    __atomic_add_fetch(&db->busyWaitNanos, elapsed, __ATOMIC_RELAXED);
+    if (retry) {
+        __atomic_add_fetch(&db->busyRetries, 1, __ATOMIC_RELAXED);
+    } else {
+        __atomic_add_fetch(&db->busyTimeouts, 1, __ATOMIC_RELAXED);
+    }
+    return retry;
+}
+
+static int java_progress(void *data) {
     JNIEnv *env;
+    if (tCallbackError) {
+        return 1;
+    }
     if (data && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
-        jobject comparator = env->NewLocalRef(static_cast<jobject>(data));
-        std::string lhs(static_cast<const char *>(lhsv), static_cast<size_t>(lhsl));
-        std::string rhs(static_cast<const char *>(rhsv), static_cast<size_t>(rhsl));
-        int ret = env->CallIntMethod(comparator, gComparator.method,
-                env->NewStringUTF(lhs.c_str()),
-                env->NewStringUTF(rhs.c_str()));
-        env->DeleteLocalRef(comparator);
-        return ret;
+        jboolean interrupt = env->CallBooleanMethod(static_cast<jobject>(data), gProgress.method);
+        return park_callback_error(env) || interrupt ? 1 : 0;
+    }
+    return 0;
+}
+
+static void java_update(void *data, int op, const char *schema, const char *table, sqlite3_int64 rowid) {
+    SQLiteDb *db = static_cast<SQLiteDb *>(data);
+    ++db->hookRows;
+    jint index = change_table(db, schema, table);
+    if (db->changesTruncated) {
+        return;
+    }
+    if (db->changeRowids.size() >= db->maxChanges) {
+        // too many rows for one batch, only the set of tables is delivered
+        truncate_changes(db);
+        return;
+    }
+    db->changeEntries.push_back((index << 8) | op);
+    db->changeRowids.push_back(rowid);
+}
+
+static int java_commit(void *data) {
+    // COMMIT can still fail with SQLITE_BUSY after this hook, the changes are delivered once the call returns;
+    // set even without changes yet, the committing statement's hookless changes are only noted after this hook
+    tCommitted = static_cast<SQLiteDb *>(data);
+    return 0;
+}
+
+static void java_rollback(void *data) {
+    SQLiteDb *db = static_cast<SQLiteDb *>(data);
+    if (tCommitted == db) {
+        tCommitted = nullptr;
+    }
+    clear_changes(db);
+}
+
+static int java_compare(void *data, int lhsl, const void *lhsv, int rhsl, const void *rhsv) {
+    JNIEnv *env;
+    if (!tCallbackError && data && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        jobject comparator = static_cast<jobject>(data);
+        jstring lhs = env->NewString(static_cast<const jchar *>(lhsv), lhsl / 2);
+        jstring rhs = env->NewString(static_cast<const jchar *>(rhsv), rhsl / 2);
+        int ret = env->CallIntMethod(comparator, gComparator.method, lhs, rhs);
+        env->DeleteLocalRef(lhs);
+        env->DeleteLocalRef(rhs);
+        return park_callback_error(env) ? 0 : ret;
     }
     return 0;
 }
 
+static size_t collation_slot(SQLiteCollation *collation, const CollationSlot *keep) {
+    if (collation->slots.size() < collation->maxKeys) {
+        collation->slots.emplace_back();
+        return collation->slots.size() - 1;
+    }
+    // clock eviction, a miss replaces one entry that has not been used since the hand last passed it
+    for (;;) {
+        size_t index = collation->hand;
+        CollationSlot *slot = &collation->slots[index];
+        collation->hand = (index + 1) % collation->slots.size();
+        if (slot == keep) {
+            continue;
+        }
+        if (slot->used) {
+            slot->used = false;
+            continue;
+        }
+        collation->keys.erase(CollationText{slot->text.data(), slot->text.size()});
+        return index;
+    }
+}
+
+static const CollationSlot *collation_key(JNIEnv *env, SQLiteCollation *collation, int length, const void *value,
+                                          const CollationSlot *keep) {
+    auto cached = collation->keys.find(CollationText{static_cast<const char *>(value), static_cast<size_t>(length)});
+    if (cached != collation->keys.end()) {
+        CollationSlot *slot = &collation->slots[cached->second];
+        slot->used = true;
+        return slot;
+    }
+    jstring jvalue = env->NewString(static_cast<const jchar *>(value), length / 2);
+    jbyteArray jkey = static_cast<jbyteArray>(env->CallObjectMethod(collation->keyFunc, gCollationKey.method, jvalue));
+    env->DeleteLocalRef(jvalue);
+    if (park_callback_error(env) || !jkey) {
+        return nullptr;
+    }
+    size_t index = collation_slot(collation, keep);
+    CollationSlot *slot = &collation->slots[index];
+    slot->text.assign(static_cast<const char *>(value), static_cast<size_t>(length));
+    slot->key.resize(static_cast<size_t>(env->GetArrayLength(jkey)));
+    env->GetByteArrayRegion(jkey, 0, static_cast<jsize>(slot->key.size()), reinterpret_cast<jbyte *>(&slot->key[0]));
+    env->DeleteLocalRef(jkey);
+    slot->used = true;
+    collation->keys.emplace(CollationText{slot->text.data(), slot->text.size()}, index);
+    return slot;
+}
+
+static int java_compare_keys(void *data, int lhsl, const void *lhsv, int rhsl, const void *rhsv) {
+    JNIEnv *env;
+    if (!tCallbackError && data && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        SQLiteCollation *collation = static_cast<SQLiteCollation *>(data);
+        const CollationSlot *lhs = collation_key(env, collation, lhsl, lhsv, nullptr);
+        if (!lhs) {
+            return 0;
+        }
+        // the second lookup never evicts the first key
+        const CollationSlot *rhs = collation_key(env, collation, rhsl, rhsv, lhs);
+        if (!rhs) {
+            return 0;
+        }
+        return lhs->key.compare(rhs->key);
+    }
+    return 0;
+}
+
+static void java_destroy_keys(void *data) {
+    JNIEnv *env;
+    if (data && JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        SQLiteCollation *collation = static_cast<SQLiteCollation *>(data);
+        env->DeleteGlobalRef(collation->keyFunc);
+        delete collation;
+    }
+}
+
+static jlongArray java_values(JNIEnv *env, int argc, sqlite3_value **argv) {
+    jlong values[argc];
+    for (int i = 0; i < argc; ++i) {
+        values[i] = reinterpret_cast<jlong>(argv[i]);
+    }
+    jlongArray jvalues = env->NewLongArray(argc);
+    env->SetLongArrayRegion(jvalues, 0, argc, values);
+    return jvalues;
+}
+
+static jlong java_value(int argc, sqlite3_value **argv, int index) {
+    return index < argc ? reinterpret_cast<jlong>(argv[index]) : 0;
+}
+
+// fails the statement once a function callback has thrown, the exception is rethrown in place of this error
+static bool func_failed(JNIEnv *env, sqlite3_context *context) {
+    if (park_callback_error(env) || tCallbackError) {
+        sqlite3_result_error(context, "Java function threw an exception", -1);
+        return true;
+    }
+    return false;
+}
+
 static void java_func(sqlite3_context *context, int argc, sqlite3_value **argv) {
     JNIEnv *env;
     if (JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
         void *data = sqlite3_user_data(context);
-        if (data) {
-            jobject func = env->NewLocalRef(static_cast<jobject>(data));
-            jlong values[argc];
-            for (int i = 0; i < argc; ++i) {
-                values[i] = reinterpret_cast<jlong>(argv[i]);
+        if (data && !func_failed(env, context)) {
+            jobject func = static_cast<jobject>(data);
+            if (argc <= FAST_PATH_ARGS) {
+                env->CallVoidMethod(func, gFunc.fastMethod, reinterpret_cast<jlong>(context), argc,
+                        java_value(argc, argv, 0), java_value(argc, argv, 1), java_value(argc, argv, 2));
+            } else {
+                jlongArray jvalues = java_values(env, argc, argv);
+                env->CallVoidMethod(func, gFunc.method, reinterpret_cast<jlong>(context), jvalues);
+                env->DeleteLocalRef(jvalues);
+            }
+            func_failed(env, context);
+        }
+    }
+}
+
+static void java_step(sqlite3_context *context, int argc, sqlite3_value **argv) {
+    JNIEnv *env;
+    if (JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        jobject aggregate = static_cast<jobject>(sqlite3_user_data(context));
+        jobject *state = static_cast<jobject *>(sqlite3_aggregate_context(context, sizeof(jobject)));
+        if (!state) {
+            sqlite3_result_error_nomem(context);
+            return;
+        }
+        if (func_failed(env, context)) {
+            return;
+        }
+        if (!*state) {
+            jobject instance = env->CallObjectMethod(aggregate, gAggregate.create);
+            if (func_failed(env, context)) {
+                return;
             }
-            jlongArray jvalues = env->NewLongArray(argc);
-            env->SetLongArrayRegion(jvalues, 0, argc, values);
-            env->CallVoidMethod(func, gFunc.method, reinterpret_cast<jlong>(context), jvalues);
+            *state = env->NewGlobalRef(instance);
+            env->DeleteLocalRef(instance);
+        }
+        if (argc <= FAST_PATH_ARGS) {
+            env->CallVoidMethod(aggregate, gAggregate.fastStep, *state, reinterpret_cast<jlong>(context), argc,
+                    java_value(argc, argv, 0), java_value(argc, argv, 1), java_value(argc, argv, 2));
+        } else {
+            jlongArray jvalues = java_values(env, argc, argv);
+            env->CallVoidMethod(aggregate, gAggregate.step, *state, reinterpret_cast<jlong>(context), jvalues);
             env->DeleteLocalRef(jvalues);
-            env->DeleteLocalRef(func);
+        }
+        func_failed(env, context);
+    }
+}
+
+static void java_final(sqlite3_context *context) {
+    JNIEnv *env;
+    if (JNI_OK == gJavaVm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6)) {
+        jobject aggregate = static_cast<jobject>(sqlite3_user_data(context));
+        jobject *state = static_cast<jobject *>(sqlite3_aggregate_context(context, 0));
+        jobject instance = state ? *state : nullptr;
+        // also runs when a reset releases the aggregate, possibly with an exception already thrown
+        if (!env->ExceptionCheck() && !func_failed(env, context)) {
+            env->CallVoidMethod(aggregate, gAggregate.finish, instance, reinterpret_cast<jlong>(context));
+            func_failed(env, context);
+        }
+        if (instance) {
+            env->DeleteGlobalRef(instance);
         }
     }
 }
@@ -136,6 +1198,45 @@ Java_sqlite4a_SQLite_getLibVersion(JNIEnv *env, jclass type) {
     return sqlite3_libversion_number();
 }
 
+static const int STATUS_OPS[] = {
+        SQLITE_STATUS_MEMORY_USED,
+        SQLITE_STATUS_PAGECACHE_USED,
+        SQLITE_STATUS_PAGECACHE_OVERFLOW,
+        SQLITE_STATUS_MALLOC_SIZE,
+        SQLITE_STATUS_PARSER_STACK,
+        SQLITE_STATUS_PAGECACHE_SIZE,
+        SQLITE_STATUS_MALLOC_COUNT
+};
+
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_sqlite4a_SQLite_nativeStatus(JNIEnv *env, jclass type, jboolean reset) {
+    const int count = sizeof(STATUS_OPS) / sizeof(STATUS_OPS[0]);
+    jlong values[count * 2];
+    for (int i = 0; i < count; ++i) {
+        sqlite3_int64 current = 0;
+        sqlite3_int64 highwater = 0;
+        sqlite3_status64(STATUS_OPS[i], &current, &highwater, reset);
+        values[i * 2] = current;
+        values[i * 2 + 1] = highwater;
+    }
+    jlongArray jvalues = env->NewLongArray(count * 2);
+    env->SetLongArrayRegion(jvalues, 0, count * 2, values);
+    return jvalues;
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_sqlite4a_SQLite_nativeSoftHeapLimit(JNIEnv *env, jclass type, jlong limit) {
+    return sqlite3_soft_heap_limit64(limit);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_sqlite4a_SQLite_nativeHardHeapLimit(JNIEnv *env, jclass type, jlong limit) {
+    if (limit < 0) {
+        return __atomic_load_n(&gHardHeapLimit, __ATOMIC_RELAXED);
+    }
+    return __atomic_exchange_n(&gHardHeapLimit, static_cast<sqlite3_int64>(limit), __ATOMIC_RELAXED);
+}
+
 extern "C" JNIEXPORT jlong JNICALL
 Java_sqlite4a_SQLite_nativeOpen(JNIEnv *env, jclass type, jstring jpath, jint jflags) {
     sqlite3 *handle;
@@ -151,13 +1252,15 @@ Java_sqlite4a_SQLite_nativeOpen(JNIEnv *env, jclass type, jstring jpath, jint jf
         throw_sqlite_exception(env, "Could not open the database in read/write mode.");
         return 0;
     }
-    ret = sqlite3_busy_timeout(handle, 2500);
+    SQLiteDb *db = new SQLiteDb(handle);
+    ret = sqlite3_busy_handler(handle, busy_handler, db);
     if (SQLITE_OK != ret) {
-        throw_sqlite_exception(env, "Could not set busy timeout");
+        throw_sqlite_exception(env, "Could not set busy handler");
         sqlite3_close(handle);
+        delete db;
         return 0;
     }
-    return reinterpret_cast<jlong>(new SQLiteDb(handle));
+    return reinterpret_cast<jlong>(db);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -166,10 +1269,152 @@ Java_sqlite4a_SQLiteDb_nativeClose(JNIEnv *env, jclass type, jlong jptr) {
     if (db->trace) {
         env->DeleteGlobalRef(db->trace);
     }
+    if (db->progress) {
+        sqlite3_progress_handler(db->handle, 0, nullptr, nullptr);
+        env->DeleteGlobalRef(db->progress);
+    }
+    sqlite3_trace_v2(db->handle, 0, nullptr, nullptr);
+    for (auto &entry : db->txnStmts) {
+        sqlite3_finalize(entry.second);
+    }
+    sqlite3_busy_handler(db->handle, nullptr, nullptr);
+    if (db->busyHandler) {
+        env->DeleteGlobalRef(db->busyHandler);
+    }
+    if (db->changeListener) {
+        sqlite3_update_hook(db->handle, nullptr, nullptr);
+        sqlite3_commit_hook(db->handle, nullptr, nullptr);
+        sqlite3_rollback_hook(db->handle, nullptr, nullptr);
+        env->DeleteGlobalRef(db->changeListener);
+    }
+    if (tCommitted == db) {
+        tCommitted = nullptr;
+    }
     sqlite3_close_v2(db->handle);
+    if (db->metricsLock) {
+        sqlite3_mutex_free(db->metricsLock);
+    }
     delete db;
 }
 
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_sqlite4a_SQLiteDb_nativeStatus(JNIEnv *env, jclass type, jlong jptr, jboolean reset) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    const int count = SQLITE_DBSTATUS_MAX + 1;
+    const int size = count * 2 + 5;
+    jlong values[size];
+    for (int op = 0; op < count; ++op) {
+        int current = 0;
+        int highwater = 0;
+        sqlite3_db_status(db->handle, op, &current, &highwater, reset);
+        values[op * 2] = current;
+        values[op * 2 + 1] = highwater;
+    }
+    jlong *counters[] = {&db->busyEvents, &db->busyRetries, &db->busyWaitNanos, &db->busyTimeouts,
+                         &db->metricsDropped};
+    for (int i = 0; i < 5; ++i) {
+        values[count * 2 + i] = reset ? __atomic_exchange_n(counters[i], 0, __ATOMIC_RELAXED)
+                                      : __atomic_load_n(counters[i], __ATOMIC_RELAXED);
+    }
+    jlongArray jvalues = env->NewLongArray(size);
+    env->SetLongArrayRegion(jvalues, 0, size, values);
+    return jvalues;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeSetBusyBackoff(JNIEnv *env, jclass type, jlong jptr, jint initialDelayMs,
+                                           jint maxDelayMs, jint timeoutMs) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    if (db->busyHandler) {
+        env->DeleteGlobalRef(db->busyHandler);
+        db->busyHandler = nullptr;
+    }
+    db->busyInitialDelayMs = initialDelayMs;
+    db->busyMaxDelayMs = maxDelayMs;
+    db->busyTimeoutMs = timeoutMs;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeSetBusyHandler(JNIEnv *env, jclass type, jlong jptr, jobject jhandler) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    if (db->busyHandler) {
+        env->DeleteGlobalRef(db->busyHandler);
+    }
+    db->busyHandler = env->NewGlobalRef(jhandler);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeConfigLookaside(JNIEnv *env, jclass type, jlong jptr, jint slotSize, jint slotCount) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    int ret = sqlite3_db_config(db->handle, SQLITE_DBCONFIG_LOOKASIDE, nullptr, slotSize, slotCount);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errstr(ret));
+    }
+}
+
+static const int TXN_BEGIN_DEFERRED = 0;
+static const int TXN_BEGIN_IMMEDIATE = 1;
+static const int TXN_BEGIN_EXCLUSIVE = 2;
+static const int TXN_COMMIT = 3;
+static const int TXN_ROLLBACK = 4;
+static const int TXN_SAVEPOINT = 5;
+static const int TXN_RELEASE = 6;
+static const int TXN_ROLLBACK_TO = 7;
+
+static std::string txn_sql(int op, int depth) {
+    std::string savepoint = "sqlite4a_" + std::to_string(depth);
+    switch (op) {
+        case TXN_BEGIN_DEFERRED:
+            return "BEGIN DEFERRED;";
+        case TXN_BEGIN_IMMEDIATE:
+            return "BEGIN IMMEDIATE;";
+        case TXN_BEGIN_EXCLUSIVE:
+            return "BEGIN EXCLUSIVE;";
+        case TXN_COMMIT:
+            return "COMMIT;";
+        case TXN_ROLLBACK:
+            return "ROLLBACK;";
+        case TXN_SAVEPOINT:
+            return "SAVEPOINT " + savepoint + ";";
+        case TXN_RELEASE:
+            return "RELEASE " + savepoint + ";";
+        default:
+            return "ROLLBACK TO " + savepoint + ";";
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeTransaction(JNIEnv *env, jclass type, jlong jptr, jint op, jint depth) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    const int key = op < TXN_SAVEPOINT ? op : (depth << 3) | op;
+    sqlite3_stmt *stmt;
+    auto cached = db->txnStmts.find(key);
+    if (cached != db->txnStmts.end()) {
+        stmt = cached->second;
+    } else {
+        std::string sql = txn_sql(op, depth);
+        int ret = sqlite3_prepare_v2(db->handle, sql.c_str(), static_cast<int>(sql.length()), &stmt, nullptr);
+        if (SQLITE_OK != ret) {
+            throw_sqlite_error(env, db->handle, sql.c_str());
+            return;
+        }
+        db->txnStmts[key] = stmt;
+    }
+    int ret = sqlite3_step(stmt);
+    if (SQLITE_DONE != ret) {
+        throw_sqlite_error(env, db->handle, sqlite3_sql(stmt));
+    } else {
+        finish_call(env);
+    }
+    sqlite3_reset(stmt);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeInterrupt(JNIEnv *env, jclass type, jlong jptr) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    sqlite3_interrupt(db->handle);
+}
+
 extern "C" JNIEXPORT jint JNICALL
 Java_sqlite4a_SQLiteDb_nativeIsReadOnly(JNIEnv *env, jclass type, jlong jptr) {
     SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
@@ -190,23 +1435,131 @@ Java_sqlite4a_SQLiteDb_nativeExec(JNIEnv *env, jclass type, jlong jptr, jstring
     env->ReleaseStringUTFChars(jsql, sqlChars);
     int ret = sqlite3_exec(db->handle, sql.c_str(), nullptr, nullptr, nullptr);
     if (SQLITE_OK != ret) {
-        throw_sqlite_exception(env, sqlite3_errmsg(db->handle), sql.c_str());
+        throw_sqlite_error(env, db->handle, sql.c_str());
+    } else {
+        finish_call(env);
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeTrace(JNIEnv *env, jclass type, jlong jptr, jobject jfunc) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    if (db->trace) {
+        env->DeleteGlobalRef(db->trace);
+        db->trace = nullptr;
+    }
+    if (jfunc) {
+        db->trace = env->NewGlobalRef(jfunc);
+    }
+    int ret = update_trace(db);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeSetMetricsEnabled(JNIEnv *env, jclass type, jlong jptr, jint maxStatements) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    if (maxStatements > 0 && !db->metricsLock) {
+        db->metricsLock = sqlite3_mutex_alloc(SQLITE_MUTEX_FAST);
+        if (!db->metricsLock) {
+            throw_sqlite_exception(env, "Could not allocate metrics lock");
+            return;
+        }
+    }
+    if (db->metricsLock) {
+        sqlite3_mutex_enter(db->metricsLock);
+        db->maxMetrics = static_cast<size_t>(maxStatements > 0 ? maxStatements : 0);
+        sqlite3_mutex_leave(db->metricsLock);
+    }
+    if (maxStatements <= 0 && db->metricsLock) {
+        sqlite3_trace_v2(db->handle, 0, nullptr, nullptr);
+        sqlite3_mutex_free(db->metricsLock);
+        db->metricsLock = nullptr;
+        db->metrics.clear();
+    }
+    int ret = update_trace(db);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+    }
+}
+
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_sqlite4a_SQLiteDb_nativeGetMetrics(JNIEnv *env, jclass type, jlong jptr, jboolean reset) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    if (!db->metricsLock) {
+        return env->NewObjectArray(0, gMetrics.clazz, nullptr);
+    }
+    std::vector<std::pair<std::string, SQLiteMetric>> snapshot;
+    sqlite3_mutex_enter(db->metricsLock);
+    snapshot.reserve(db->metrics.size());
+    for (auto &entry : db->metrics) {
+        SQLiteMetric metric;
+        for (int i = 0; i < METRIC_FIELDS; ++i) {
+            metric.values[i] = reset ? __atomic_exchange_n(&entry.second.values[i], 0, __ATOMIC_RELAXED)
+                    : __atomic_load_n(&entry.second.values[i], __ATOMIC_RELAXED);
+        }
+        // entries zeroed by an earlier reset and not run since
+        if (metric.values[METRIC_COUNT] > 0) {
+            snapshot.emplace_back(entry.first, metric);
+        }
+    }
+    sqlite3_mutex_leave(db->metricsLock);
+    jobjectArray jmetrics = env->NewObjectArray(static_cast<jsize>(snapshot.size()), gMetrics.clazz, nullptr);
+    for (size_t i = 0; i < snapshot.size(); ++i) {
+        jstring jsql = env->NewStringUTF(snapshot[i].first.c_str());
+        jlongArray jvalues = env->NewLongArray(METRIC_FIELDS);
+        env->SetLongArrayRegion(jvalues, 0, METRIC_FIELDS, snapshot[i].second.values);
+        jobject jmetric = env->NewObject(gMetrics.clazz, gMetrics.constructor, jsql, jvalues);
+        env->SetObjectArrayElement(jmetrics, static_cast<jsize>(i), jmetric);
+        env->DeleteLocalRef(jmetric);
+        env->DeleteLocalRef(jvalues);
+        env->DeleteLocalRef(jsql);
+    }
+    return jmetrics;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeSetProgressHandler(JNIEnv *env, jclass type, jlong jptr, jint opcodes, jobject jfunc) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    sqlite3_progress_handler(db->handle, 0, nullptr, nullptr);
+    if (db->progress) {
+        env->DeleteGlobalRef(db->progress);
+        db->progress = nullptr;
+    }
+    if (jfunc) {
+        db->progress = env->NewGlobalRef(jfunc);
+        sqlite3_progress_handler(db->handle, opcodes, java_progress, db->progress);
     }
 }
 
 extern "C" JNIEXPORT void JNICALL
-Java_sqlite4a_SQLiteDb_nativeTrace(JNIEnv *env, jclass type, jlong jptr, jobject jfunc) {
+Java_sqlite4a_SQLiteDb_nativeSetChangeListener(JNIEnv *env, jclass type, jlong jptr, jint maxRows, jobject jlistener) {
     SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
-    if (db->trace) {
-        env->DeleteGlobalRef(db->trace);
-        db->trace = nullptr;
+    sqlite3_update_hook(db->handle, nullptr, nullptr);
+    sqlite3_commit_hook(db->handle, nullptr, nullptr);
+    sqlite3_rollback_hook(db->handle, nullptr, nullptr);
+    clear_changes(db);
+    db->compileWrites.clear();
+    db->writeTargets.clear();
+    if (db->changeListener) {
+        env->DeleteGlobalRef(db->changeListener);
+        db->changeListener = nullptr;
     }
-    if (jfunc) {
-        db->trace = env->NewGlobalRef(jfunc);
-        int ret = sqlite3_trace_v2(db->handle, SQLITE_TRACE_STMT, java_trace, db->trace);
-        if (SQLITE_OK != ret) {
-            throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
-        }
+    if (jlistener) {
+        db->changeListener = env->NewGlobalRef(jlistener);
+        db->maxChanges = static_cast<size_t>(maxRows);
+        db->hookRows = 0;
+        db->seenTotalChanges = sqlite3_total_changes(db->handle);
+        sqlite3_update_hook(db->handle, java_update, db);
+        sqlite3_commit_hook(db->handle, java_commit, db);
+        sqlite3_rollback_hook(db->handle, java_rollback, db);
+    }
+    // changing the authorizer expires prepared statements, they recompile and report their writes on next step
+    sqlite3_set_authorizer(db->handle, jlistener ? change_authorizer : nullptr, db);
+    int ret = update_trace(db);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
     }
 }
 
@@ -220,12 +1573,17 @@ Java_sqlite4a_SQLiteDb_nativeExecForDouble(JNIEnv *env, jclass type, jlong jptr,
     int ret = sqlite3_prepare_v2(db->handle, sql.c_str(), static_cast<int>(sql.length()), &stmt, nullptr);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(db->handle), sql.c_str());
+        return 0;
     }
     double value = 0;
-    if (SQLITE_ROW == sqlite3_step(stmt)) {
+    ret = sqlite3_step(stmt);
+    if (SQLITE_ROW == ret) {
         value = sqlite3_column_double(stmt, 0);
+    } else if (SQLITE_DONE != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle), sql.c_str());
     }
     sqlite3_finalize(stmt);
+    finish_call(env);
     return value;
 }
 
@@ -236,9 +1594,13 @@ Java_sqlite4a_SQLiteDb_nativePrepare(JNIEnv *env, jclass type, jlong jptr, jstri
     std::string sql(sqlChars);
     env->ReleaseStringUTFChars(jsql, sqlChars);
     sqlite3_stmt *stmt;
+    db->compileWrites.clear();
     int ret = sqlite3_prepare_v2(db->handle, sql.c_str(), static_cast<int>(sql.length()), &stmt, nullptr);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(db->handle), sql.c_str());
+    } else if (stmt) {
+        // the statement may run after others were compiled
+        remember_writes(db, sqlite3_sql(stmt));
     }
     return reinterpret_cast<jlong>(stmt);
 }
@@ -251,26 +1613,261 @@ Java_sqlite4a_SQLiteDb_nativeCreateCollation(JNIEnv *env, jclass type, jlong jpt
     const char *nameChars = env->GetStringUTFChars(jname, nullptr);
     std::string name(nameChars);
     env->ReleaseStringUTFChars(jname, nameChars);
-    int ret = sqlite3_create_collation_v2(db->handle, name.c_str(), SQLITE_UTF8, comparator, java_compare,
+    int ret = sqlite3_create_collation_v2(db->handle, name.c_str(), SQLITE_UTF16, comparator, java_compare,
             java_destroy);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
     }
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeCreateKeyCollation(JNIEnv *env, jclass type, jlong jptr, jstring jname, jint maxKeys,
+                                                jobject jkeyFunc) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    const char *nameChars = env->GetStringUTFChars(jname, nullptr);
+    std::string name(nameChars);
+    env->ReleaseStringUTFChars(jname, nameChars);
+    SQLiteCollation *collation = new SQLiteCollation(env->NewGlobalRef(jkeyFunc), static_cast<size_t>(maxKeys));
+    int ret = sqlite3_create_collation_v2(db->handle, name.c_str(), SQLITE_UTF16, collation, java_compare_keys,
+            java_destroy_keys);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+    }
+}
+
 extern "C" JNIEXPORT void JNICALL
 Java_sqlite4a_SQLiteDb_nativeCreateFunction(JNIEnv *env, jclass type, jlong jptr, jstring jname, jint numArgs,
-                                            jobject jfunc) {
+                                            jint flags, jobject jfunc) {
     SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
     const char *nameChars = env->GetStringUTFChars(jname, nullptr);
     std::string name(nameChars);
     env->ReleaseStringUTFChars(jname, nameChars);
     jobject func = env->NewGlobalRef(jfunc);
-    int ret = sqlite3_create_function_v2(db->handle, name.c_str(), numArgs, SQLITE_UTF8, func, java_func, nullptr,
-            nullptr, java_destroy);
+    int ret = sqlite3_create_function_v2(db->handle, name.c_str(), numArgs, SQLITE_UTF8 | flags, func, java_func,
+            nullptr, nullptr, java_destroy);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeCreateAggregate(JNIEnv *env, jclass type, jlong jptr, jstring jname, jint numArgs,
+                                             jobject jaggregate) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    const char *nameChars = env->GetStringUTFChars(jname, nullptr);
+    std::string name(nameChars);
+    env->ReleaseStringUTFChars(jname, nameChars);
+    jobject aggregate = env->NewGlobalRef(jaggregate);
+    int ret = sqlite3_create_function_v2(db->handle, name.c_str(), numArgs, SQLITE_UTF8, aggregate, nullptr,
+            java_step, java_final, java_destroy);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+    }
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_sqlite4a_SQLiteDb_nativeOpenBlob(JNIEnv *env, jclass type, jlong jptr, jstring jtable, jstring jcolumn,
+                                      jlong rowid, jboolean writable) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    const char *table = env->GetStringUTFChars(jtable, nullptr);
+    const char *column = env->GetStringUTFChars(jcolumn, nullptr);
+    sqlite3_blob *blob = nullptr;
+    int ret = sqlite3_blob_open(db->handle, "main", table, column, rowid, writable ? 1 : 0, &blob);
+    env->ReleaseStringUTFChars(jcolumn, column);
+    env->ReleaseStringUTFChars(jtable, table);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(db->handle));
+        sqlite3_blob_close(blob);
+        return 0;
+    }
+    return reinterpret_cast<jlong>(new SQLiteBlob(blob, db->handle));
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_sqlite4a_SQLiteBackup_nativeInit(JNIEnv *env, jclass type, jlong jdst, jstring jdstName, jlong jsrc,
+                                      jstring jsrcName) {
+    SQLiteDb *dst = reinterpret_cast<SQLiteDb *>(jdst);
+    SQLiteDb *src = reinterpret_cast<SQLiteDb *>(jsrc);
+    const char *dstName = env->GetStringUTFChars(jdstName, nullptr);
+    const char *srcName = env->GetStringUTFChars(jsrcName, nullptr);
+    sqlite3_backup *backup = sqlite3_backup_init(dst->handle, dstName, src->handle, srcName);
+    env->ReleaseStringUTFChars(jsrcName, srcName);
+    env->ReleaseStringUTFChars(jdstName, dstName);
+    if (!backup) {
+        throw_sqlite_exception(env, sqlite3_errmsg(dst->handle));
+        return 0;
+    }
+    return reinterpret_cast<jlong>(backup);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_SQLiteBackup_nativeStep(JNIEnv *env, jclass type, jlong jptr, jint pages) {
+    int ret = sqlite3_backup_step(reinterpret_cast<sqlite3_backup *>(jptr), pages);
+    if (SQLITE_OK != ret && SQLITE_DONE != ret && SQLITE_BUSY != ret && SQLITE_LOCKED != ret) {
+        throw_sqlite_exception(env, sqlite3_errstr(ret));
+    } else {
+        finish_call(env);
+    }
+    return ret;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_SQLiteBackup_nativeRemaining(JNIEnv *env, jclass type, jlong jptr) {
+    return sqlite3_backup_remaining(reinterpret_cast<sqlite3_backup *>(jptr));
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_SQLiteBackup_nativePageCount(JNIEnv *env, jclass type, jlong jptr) {
+    return sqlite3_backup_pagecount(reinterpret_cast<sqlite3_backup *>(jptr));
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBackup_nativeFinish(JNIEnv *env, jclass type, jlong jptr) {
+    int ret = sqlite3_backup_finish(reinterpret_cast<sqlite3_backup *>(jptr));
+    // finish repeats the result of the last step, a lock that stopped it is not an error here
+    if (SQLITE_OK != ret && SQLITE_BUSY != ret && SQLITE_LOCKED != ret) {
+        throw_sqlite_exception(env, sqlite3_errstr(ret));
+    }
+}
+
+static int backup_main(sqlite3 *dst, sqlite3 *src) {
+    sqlite3_backup *backup = sqlite3_backup_init(dst, "main", src, "main");
+    if (!backup) {
+        return sqlite3_errcode(dst);
     }
+    sqlite3_backup_step(backup, -1);
+    return sqlite3_backup_finish(backup);
+}
+
+static void deserialize_image(JNIEnv *env, SQLiteDb *db, MemImage *image) {
+    std::string name = mem_register(image);
+    sqlite3 *src = nullptr;
+    int ret = sqlite3_open_v2(name.c_str(), &src, SQLITE_OPEN_READONLY, MEM_VFS_NAME);
+    if (SQLITE_OK == ret) {
+        // pages are then served straight from the image through xFetch
+        std::string mmap = "PRAGMA mmap_size=" + std::to_string(image->size) + ";";
+        sqlite3_exec(src, mmap.c_str(), nullptr, nullptr, nullptr);
+        ret = backup_main(db->handle, src);
+        if (SQLITE_OK != ret) {
+            throw_sqlite_error(env, db->handle);
+        }
+    } else {
+        throw_sqlite_exception(env, src ? sqlite3_errmsg(src) : sqlite3_errstr(ret));
+    }
+    sqlite3_close_v2(src);
+    mem_unregister(name);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeDeserializeDirect(JNIEnv *env, jclass type, jlong jptr, jobject jimage, jint offset,
+                                               jint length) {
+    const char *data = static_cast<const char *>(env->GetDirectBufferAddress(jimage));
+    if (!data) {
+        throw_sqlite_exception(env, "Buffer is not direct");
+        return;
+    }
+    deserialize_image(env, reinterpret_cast<SQLiteDb *>(jptr), new MemImage(data + offset, length));
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteDb_nativeDeserializeArray(JNIEnv *env, jclass type, jlong jptr, jbyteArray jimage, jint offset,
+                                              jint length) {
+    MemImage *image = new MemImage(nullptr, length);
+    image->owned.resize(static_cast<size_t>(length));
+    env->GetByteArrayRegion(jimage, offset, length, reinterpret_cast<jbyte *>(&image->owned[0]));
+    image->data = image->owned.data();
+    deserialize_image(env, reinterpret_cast<SQLiteDb *>(jptr), image);
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL
+Java_sqlite4a_SQLiteDb_nativeSerialize(JNIEnv *env, jclass type, jlong jptr) {
+    SQLiteDb *db = reinterpret_cast<SQLiteDb *>(jptr);
+    MemImage *image = new MemImage();
+    std::string name = mem_register(image);
+    sqlite3 *dst = nullptr;
+    int ret = sqlite3_open_v2(name.c_str(), &dst, SQLITE_OPEN_READWRITE | SQLITE_OPEN_CREATE, MEM_VFS_NAME);
+    if (SQLITE_OK == ret) {
+        ret = sqlite3_exec(dst, "PRAGMA journal_mode=OFF;", nullptr, nullptr, nullptr);
+    }
+    if (SQLITE_OK == ret) {
+        ret = backup_main(dst, db->handle);
+    }
+    jbyteArray jimage = nullptr;
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, dst ? sqlite3_errmsg(dst) : sqlite3_errstr(ret));
+    } else {
+        jimage = env->NewByteArray(static_cast<jsize>(image->size));
+        if (jimage) {
+            env->SetByteArrayRegion(jimage, 0, static_cast<jsize>(image->size),
+                    reinterpret_cast<const jbyte *>(image->data));
+        }
+    }
+    sqlite3_close_v2(dst);
+    mem_unregister(name);
+    return jimage;
+}
+
+static jstring map_image(JNIEnv *env, int fd, jlong offset, jlong length) {
+    struct stat st;
+    if (0 != fstat(fd, &st)) {
+        throw_sqlite_exception(env, strerror(errno));
+        return nullptr;
+    }
+    // pages past the end of the file would raise SIGBUS when read
+    if (offset > st.st_size || length > st.st_size - offset) {
+        throw_sqlite_exception(env, "Image range is past the end of the file");
+        return nullptr;
+    }
+    jlong pageSize = sysconf(_SC_PAGESIZE);
+    jlong start = offset - offset % pageSize;
+    size_t mappingSize = static_cast<size_t>(length + offset - start);
+    void *mapping = mmap(nullptr, mappingSize, PROT_READ, MAP_SHARED, fd, static_cast<off_t>(start));
+    if (MAP_FAILED == mapping) {
+        throw_sqlite_exception(env, strerror(errno));
+        return nullptr;
+    }
+    MemImage *image = new MemImage(static_cast<const char *>(mapping) + (offset - start), length);
+    image->mapping = mapping;
+    image->mappingSize = mappingSize;
+    return env->NewStringUTF(mem_register(image).c_str());
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_sqlite4a_SQLiteImage_nativeMapFd(JNIEnv *env, jclass type, jint fd, jlong offset, jlong length) {
+    return map_image(env, fd, offset, length);
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_sqlite4a_SQLiteImage_nativeMapFile(JNIEnv *env, jclass type, jstring jpath, jlong offset, jlong length) {
+    const char *path = env->GetStringUTFChars(jpath, nullptr);
+    int fd = open(path, O_RDONLY | O_CLOEXEC);
+    env->ReleaseStringUTFChars(jpath, path);
+    if (fd < 0) {
+        throw_sqlite_exception(env, strerror(errno));
+        return nullptr;
+    }
+    jstring name = map_image(env, fd, offset, length);
+    close(fd);
+    return name;
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_sqlite4a_SQLiteImage_nativeMapBuffer(JNIEnv *env, jclass type, jobject jbuffer, jint offset, jint length) {
+    const char *data = static_cast<const char *>(env->GetDirectBufferAddress(jbuffer));
+    if (!data) {
+        throw_sqlite_exception(env, "Buffer is not direct");
+        return nullptr;
+    }
+    MemImage *image = new MemImage(data + offset, length);
+    image->buffer = env->NewGlobalRef(jbuffer);
+    return env->NewStringUTF(mem_register(image).c_str());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteImage_nativeUnmap(JNIEnv *env, jclass type, jstring jname) {
+    const char *name = env->GetStringUTFChars(jname, nullptr);
+    mem_unregister(name);
+    env->ReleaseStringUTFChars(jname, name);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -303,9 +1900,10 @@ Java_sqlite4a_SQLiteStmt_nativeBindDouble(JNIEnv *env, jclass type, jlong jptr,
 extern "C" JNIEXPORT void JNICALL
 Java_sqlite4a_SQLiteStmt_nativeBindString(JNIEnv *env, jclass type, jlong jptr, jint index, jstring jvalue) {
     sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
-    const char *value = env->GetStringUTFChars(jvalue, nullptr);
-    int ret = sqlite3_bind_text(stmt, index, value, static_cast<int>(strlen(value)), SQLITE_TRANSIENT);
-    env->ReleaseStringUTFChars(jvalue, value);
+    jsize length = env->GetStringLength(jvalue);
+    const jchar *value = env->GetStringCritical(jvalue, nullptr);
+    int ret = sqlite3_bind_text16(stmt, index, value, length * 2, SQLITE_TRANSIENT);
+    env->ReleaseStringCritical(jvalue, value);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(sqlite3_db_handle(stmt)));
     }
@@ -314,9 +1912,21 @@ Java_sqlite4a_SQLiteStmt_nativeBindString(JNIEnv *env, jclass type, jlong jptr,
 extern "C" JNIEXPORT void JNICALL
 Java_sqlite4a_SQLiteStmt_nativeBindBlob(JNIEnv *env, jclass type, jlong jptr, jint index, jbyteArray jvalue) {
     sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
-    jbyte *value = env->GetByteArrayElements(jvalue, nullptr);
-    int ret = sqlite3_bind_blob(stmt, index, value, env->GetArrayLength(jvalue), SQLITE_TRANSIENT);
-    env->ReleaseByteArrayElements(jvalue, value, 0);
+    jsize size = env->GetArrayLength(jvalue);
+    void *value = env->GetPrimitiveArrayCritical(jvalue, nullptr);
+    int ret = sqlite3_bind_blob(stmt, index, value, size, SQLITE_TRANSIENT);
+    env->ReleasePrimitiveArrayCritical(jvalue, value, JNI_ABORT);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(sqlite3_db_handle(stmt)));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteStmt_nativeBindDirectBlob(JNIEnv *env, jclass type, jlong jptr, jint index, jobject jvalue,
+                                              jint offset, jint length) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    jbyte *value = static_cast<jbyte *>(env->GetDirectBufferAddress(jvalue));
+    int ret = sqlite3_bind_blob(stmt, index, value + offset, length, SQLITE_STATIC);
     if (SQLITE_OK != ret) {
         throw_sqlite_exception(env, sqlite3_errmsg(sqlite3_db_handle(stmt)));
     }
@@ -340,11 +1950,13 @@ Java_sqlite4a_SQLiteStmt_nativeInsert(JNIEnv *env, jclass type, jlong jptr) {
     sqlite3 *db = sqlite3_db_handle(stmt);
     int ret = sqlite3_step(stmt);
     if (SQLITE_DONE != ret) {
-        sqlite3_finalize(stmt);
-        throw_sqlite_exception(env, sqlite3_errmsg(db));
+        throw_sqlite_error(env, db);
+        sqlite3_reset(stmt);
         return -1;
     }
-    return sqlite3_last_insert_rowid(db);
+    jlong rowid = sqlite3_last_insert_rowid(db);
+    finish_call(env);
+    return rowid;
 }
 
 extern "C" JNIEXPORT jint JNICALL
@@ -353,11 +1965,146 @@ Java_sqlite4a_SQLiteStmt_nativeExecute(JNIEnv *env, jclass type, jlong jptr) {
     sqlite3 *db = sqlite3_db_handle(stmt);
     int ret = sqlite3_step(stmt);
     if (SQLITE_DONE != ret) {
-        sqlite3_finalize(stmt);
-        throw_sqlite_exception(env, sqlite3_errmsg(db));
+        throw_sqlite_error(env, db);
+        sqlite3_reset(stmt);
         return -1;
     }
-    return sqlite3_changes(db);
+    jint changes = sqlite3_changes(db);
+    finish_call(env);
+    return changes;
+}
+
+static const jint BATCH_LONG = 1;
+
+static const jint BATCH_DOUBLE = 2;
+
+static const jint BATCH_STRING = 3;
+
+static const jint BATCH_BLOB = 4;
+
+static int batch_bind_row(JNIEnv *env, sqlite3_stmt *stmt, jint row, std::vector<jint> &types,
+                          std::vector<jobject> &columns, std::vector<void *> &elements,
+                          std::vector<std::pair<jobject, void *>> &pinned) {
+    int ret = SQLITE_OK;
+    for (size_t i = 0; i < types.size() && SQLITE_OK == ret; ++i) {
+        int index = static_cast<int>(i + 1);
+        if (BATCH_LONG == types[i]) {
+            ret = sqlite3_bind_int64(stmt, index, static_cast<jlong *>(elements[i])[row]);
+        } else if (BATCH_DOUBLE == types[i]) {
+            ret = sqlite3_bind_double(stmt, index, static_cast<jdouble *>(elements[i])[row]);
+        } else if (BATCH_STRING == types[i] || BATCH_BLOB == types[i]) {
+            jobject value = env->GetObjectArrayElement(static_cast<jobjectArray>(columns[i]), row);
+            if (!value) {
+                ret = sqlite3_bind_null(stmt, index);
+            } else if (BATCH_STRING == types[i]) {
+                jstring string = static_cast<jstring>(value);
+                const jchar *chars = env->GetStringChars(string, nullptr);
+                pinned.push_back(std::make_pair(value, (void *) chars));
+                ret = sqlite3_bind_text16(stmt, index, chars, env->GetStringLength(string) * 2, SQLITE_STATIC);
+            } else {
+                jbyteArray bytes = static_cast<jbyteArray>(value);
+                jbyte *blob = env->GetByteArrayElements(bytes, nullptr);
+                pinned.push_back(std::make_pair(value, (void *) blob));
+                ret = sqlite3_bind_blob(stmt, index, blob, env->GetArrayLength(bytes), SQLITE_STATIC);
+            }
+        } else {
+            ret = sqlite3_bind_null(stmt, index);
+        }
+    }
+    return ret;
+}
+
+static void batch_release_row(JNIEnv *env, std::vector<std::pair<jobject, void *>> &pinned) {
+    for (auto &entry : pinned) {
+        if (env->IsInstanceOf(entry.first, gString.clazz)) {
+            env->ReleaseStringChars(static_cast<jstring>(entry.first), static_cast<const jchar *>(entry.second));
+        } else {
+            env->ReleaseByteArrayElements(static_cast<jbyteArray>(entry.first), static_cast<jbyte *>(entry.second),
+                    JNI_ABORT);
+        }
+        env->DeleteLocalRef(entry.first);
+    }
+    pinned.clear();
+}
+
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_sqlite4a_SQLiteStmt_nativeExecuteBatch(JNIEnv *env, jclass type, jlong jptr, jint rowCount, jintArray jtypes,
+                                            jobjectArray jcolumns, jboolean inTransaction, jboolean rowIds) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    sqlite3 *db = sqlite3_db_handle(stmt);
+    jsize columnCount = env->GetArrayLength(jtypes);
+    std::vector<jint> types(static_cast<size_t>(columnCount));
+    env->GetIntArrayRegion(jtypes, 0, columnCount, types.data());
+    std::vector<jobject> columns(static_cast<size_t>(columnCount), nullptr);
+    std::vector<void *> elements(static_cast<size_t>(columnCount), nullptr);
+    for (jsize i = 0; i < columnCount; ++i) {
+        columns[i] = env->GetObjectArrayElement(jcolumns, i);
+        if (BATCH_LONG == types[i]) {
+            elements[i] = env->GetLongArrayElements(static_cast<jlongArray>(columns[i]), nullptr);
+        } else if (BATCH_DOUBLE == types[i]) {
+            elements[i] = env->GetDoubleArrayElements(static_cast<jdoubleArray>(columns[i]), nullptr);
+        }
+    }
+    std::vector<jlong> results(static_cast<size_t>(rowCount), 0);
+    std::vector<std::pair<jobject, void *>> pinned;
+    bool begin = inTransaction && sqlite3_get_autocommit(db);
+    int ret = begin ? sqlite3_exec(db, "BEGIN;", nullptr, nullptr, nullptr) : SQLITE_OK;
+    std::string error;
+    if (SQLITE_OK != ret) {
+        error = sqlite3_errmsg(db);
+    } else {
+        sqlite3_reset(stmt);
+        // parameters without a batch column are bound as NULL
+        sqlite3_clear_bindings(stmt);
+    }
+    for (jint row = 0; row < rowCount && SQLITE_OK == ret; ++row) {
+        ret = batch_bind_row(env, stmt, row, types, columns, elements, pinned);
+        if (SQLITE_OK == ret) {
+            ret = sqlite3_step(stmt);
+            if (SQLITE_DONE == ret) {
+                results[row] = rowIds ? sqlite3_last_insert_rowid(db) : sqlite3_changes(db);
+                ret = SQLITE_OK;
+            }
+        }
+        if (SQLITE_ROW == ret) {
+            error = "Batch statement returned a row, use select() for queries";
+        } else if (SQLITE_OK != ret) {
+            error = sqlite3_errmsg(db);
+        }
+        sqlite3_reset(stmt);
+        batch_release_row(env, pinned);
+    }
+    sqlite3_clear_bindings(stmt);
+    for (jsize i = 0; i < columnCount; ++i) {
+        if (BATCH_LONG == types[i]) {
+            env->ReleaseLongArrayElements(static_cast<jlongArray>(columns[i]), static_cast<jlong *>(elements[i]),
+                    JNI_ABORT);
+        } else if (BATCH_DOUBLE == types[i]) {
+            env->ReleaseDoubleArrayElements(static_cast<jdoubleArray>(columns[i]),
+                    static_cast<jdouble *>(elements[i]), JNI_ABORT);
+        }
+        env->DeleteLocalRef(columns[i]);
+    }
+    if (begin && SQLITE_OK == ret) {
+        ret = sqlite3_exec(db, "COMMIT;", nullptr, nullptr, nullptr);
+        if (SQLITE_OK != ret) {
+            error = sqlite3_errmsg(db);
+        }
+    }
+    if (SQLITE_OK != ret) {
+        if (begin && !sqlite3_get_autocommit(db)) {
+            sqlite3_exec(db, "ROLLBACK;", nullptr, nullptr, nullptr);
+        }
+        // the rollback resets the connection's error code, so the saved one decides the exception type
+        throw_sqlite_result(env, ret, error.c_str());
+        return nullptr;
+    }
+    if (finish_call(env)) {
+        return nullptr;
+    }
+    jlongArray jresults = env->NewLongArray(rowCount);
+    env->SetLongArrayRegion(jresults, 0, rowCount, results.data());
+    return jresults;
 }
 
 extern "C" JNIEXPORT jint JNICALL
@@ -379,9 +2126,23 @@ Java_sqlite4a_SQLiteStmt_nativeFinalize(JNIEnv *env, jclass type, jlong jptr) {
     sqlite3_finalize(reinterpret_cast<sqlite3_stmt *>(jptr));
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteStmt_nativeRecycle(JNIEnv *env, jclass type, jlong jptr) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    sqlite3_reset(stmt);
+    sqlite3_clear_bindings(stmt);
+}
+
 extern "C" JNIEXPORT jint JNICALL
 Java_sqlite4a_RowIterator_nativeStep(JNIEnv *env, jclass type, jlong jptr) {
-    return sqlite3_step(reinterpret_cast<sqlite3_stmt *>(jptr));
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    int ret = sqlite3_step(stmt);
+    if (SQLITE_ROW != ret && SQLITE_DONE != ret) {
+        throw_sqlite_error(env, sqlite3_db_handle(stmt), sqlite3_sql(stmt));
+    } else {
+        finish_call(env);
+    }
+    return ret;
 }
 
 extern "C" JNIEXPORT jint JNICALL
@@ -394,6 +2155,27 @@ Java_sqlite4a_RowIterator_nativeGetColumnName(JNIEnv *env, jclass type, jlong jp
     return env->NewStringUTF(sqlite3_column_name(reinterpret_cast<sqlite3_stmt *>(jptr), index));
 }
 
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeGetColumnType(JNIEnv *env, jclass type, jlong jptr, jint index) {
+    return sqlite3_column_type(reinterpret_cast<sqlite3_stmt *>(jptr), index);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeGetColumnTypes(JNIEnv *env, jclass type, jlong jptr, jintArray jtypes) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    jint count = sqlite3_data_count(stmt);
+    jsize length = env->GetArrayLength(jtypes);
+    jint limit = count < length ? count : length;
+    if (limit > 0) {
+        jint types[limit];
+        for (jint i = 0; i < limit; ++i) {
+            types[i] = sqlite3_column_type(stmt, i);
+        }
+        env->SetIntArrayRegion(jtypes, 0, limit, types);
+    }
+    return count;
+}
+
 extern "C" JNIEXPORT jlong JNICALL
 Java_sqlite4a_RowIterator_nativeGetColumnLong(JNIEnv *env, jclass type, jlong jptr, jint index) {
     return sqlite3_column_int64(reinterpret_cast<sqlite3_stmt *>(jptr), index);
@@ -407,8 +2189,49 @@ Java_sqlite4a_RowIterator_nativeGetColumnDouble(JNIEnv *env, jclass type, jlong
 extern "C" JNIEXPORT jstring JNICALL
 Java_sqlite4a_RowIterator_nativeGetColumnString(JNIEnv *env, jclass type, jlong jptr, jint index) {
     sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
-    const unsigned char *text = sqlite3_column_text(stmt, index);
-    return env->NewStringUTF(reinterpret_cast<const char *>(text));
+    const void *text = sqlite3_column_text16(stmt, index);
+    if (!text) {
+        return nullptr;
+    }
+    return env->NewString(static_cast<const jchar *>(text), sqlite3_column_bytes16(stmt, index) / 2);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeGetColumnChars(JNIEnv *env, jclass type, jlong jptr, jint index, jcharArray jdst,
+                                               jint offset, jint length) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    const void *text = sqlite3_column_text16(stmt, index);
+    if (!text) {
+        return -1;
+    }
+    jint size = sqlite3_column_bytes16(stmt, index) / 2;
+    if (size > 0 && length > 0) {
+        env->SetCharArrayRegion(jdst, offset, size < length ? size : length, static_cast<const jchar *>(text));
+    }
+    return size;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeCompareColumnString(JNIEnv *env, jclass type, jlong jptr, jint index,
+                                                    jstring jvalue) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    const jchar *text = static_cast<const jchar *>(sqlite3_column_text16(stmt, index));
+    if (!text || !jvalue) {
+        return (text ? 1 : 0) - (jvalue ? 1 : 0);
+    }
+    jint size = sqlite3_column_bytes16(stmt, index) / 2;
+    jint length = env->GetStringLength(jvalue);
+    jint limit = size < length ? size : length;
+    const jchar *value = env->GetStringCritical(jvalue, nullptr);
+    jint ret = size - length;
+    for (jint i = 0; i < limit; ++i) {
+        if (text[i] != value[i]) {
+            ret = text[i] - value[i];
+            break;
+        }
+    }
+    env->ReleaseStringCritical(jvalue, value);
+    return ret;
 }
 
 extern "C" JNIEXPORT jbyteArray JNICALL
@@ -421,6 +2244,110 @@ Java_sqlite4a_RowIterator_nativeGetColumnBlob(JNIEnv *env, jclass type, jlong jp
     return jvalue;
 }
 
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeGetColumnDirectBlob(JNIEnv *env, jclass type, jlong jptr, jint index, jobject jdst,
+                                                    jint offset, jint length) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    const void *value = sqlite3_column_blob(stmt, index);
+    int size = sqlite3_column_bytes(stmt, index);
+    jbyte *dst = static_cast<jbyte *>(env->GetDirectBufferAddress(jdst));
+    if (size > 0) {
+        memcpy(dst + offset, value, static_cast<size_t>(size < length ? size : length));
+    }
+    return size;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_RowIterator_nativeGetColumnArrayBlob(JNIEnv *env, jclass type, jlong jptr, jint index, jbyteArray jdst,
+                                                   jint offset, jint length) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    const void *value = sqlite3_column_blob(stmt, index);
+    int size = sqlite3_column_bytes(stmt, index);
+    if (size > 0) {
+        env->SetByteArrayRegion(jdst, offset, size < length ? size : length, static_cast<const jbyte *>(value));
+    }
+    return size;
+}
+
+static const jint WINDOW_DONE = 1 << 30;
+
+static const jint WINDOW_PENDING = 1 << 29;
+
+static bool window_put_row(sqlite3_stmt *stmt, int columns, jbyte *window, jlong capacity, jlong &position) {
+    jlong offset = position;
+    for (int i = 0; i < columns; ++i) {
+        int columnType = sqlite3_column_type(stmt, i);
+        if (offset + 1 > capacity) {
+            return false;
+        }
+        window[offset++] = static_cast<jbyte>(columnType);
+        if (SQLITE_INTEGER == columnType || SQLITE_FLOAT == columnType) {
+            if (offset + 8 > capacity) {
+                return false;
+            }
+            if (SQLITE_INTEGER == columnType) {
+                jlong value = sqlite3_column_int64(stmt, i);
+                memcpy(window + offset, &value, 8);
+            } else {
+                jdouble value = sqlite3_column_double(stmt, i);
+                memcpy(window + offset, &value, 8);
+            }
+            offset += 8;
+        } else if (SQLITE_TEXT == columnType || SQLITE_BLOB == columnType) {
+            const void *value = SQLITE_TEXT == columnType ? sqlite3_column_text16(stmt, i) : sqlite3_column_blob(stmt, i);
+            jint size = SQLITE_TEXT == columnType ? sqlite3_column_bytes16(stmt, i) : sqlite3_column_bytes(stmt, i);
+            if (offset + 4 + size > capacity) {
+                return false;
+            }
+            memcpy(window + offset, &size, 4);
+            offset += 4;
+            if (size > 0) {
+                memcpy(window + offset, value, static_cast<size_t>(size));
+                offset += size;
+            }
+        }
+    }
+    position = offset;
+    return true;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_WindowIterator_nativeFillWindow(JNIEnv *env, jclass type, jlong jptr, jobject jwindow,
+                                              jint capacity, jint maxRows, jboolean pending) {
+    sqlite3_stmt *stmt = reinterpret_cast<sqlite3_stmt *>(jptr);
+    jbyte *window = static_cast<jbyte *>(env->GetDirectBufferAddress(jwindow));
+    int columns = sqlite3_column_count(stmt);
+    jlong position = 0;
+    jint rows = 0;
+    if (pending) {
+        if (!window_put_row(stmt, columns, window, capacity, position)) {
+            return WINDOW_PENDING;
+        }
+        ++rows;
+    }
+    while (rows < maxRows) {
+        int ret = sqlite3_step(stmt);
+        if (SQLITE_DONE == ret) {
+            finish_call(env);
+            return rows | WINDOW_DONE;
+        }
+        if (SQLITE_ROW != ret) {
+            throw_sqlite_exception(env, sqlite3_errmsg(sqlite3_db_handle(stmt)));
+            return rows | WINDOW_DONE;
+        }
+        if (!window_put_row(stmt, columns, window, capacity, position)) {
+            return rows | WINDOW_PENDING;
+        }
+        ++rows;
+    }
+    return rows;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_SQLiteValue_nativeType(JNIEnv *env, jclass type, jlong jptr) {
+    return sqlite3_value_type(reinterpret_cast<sqlite3_value *>(jptr));
+}
+
 extern "C" JNIEXPORT jlong JNICALL
 Java_sqlite4a_SQLiteValue_nativeLongValue(JNIEnv *env, jclass type, jlong jptr) {
     return sqlite3_value_int64(reinterpret_cast<sqlite3_value *>(jptr));
@@ -434,8 +2361,11 @@ Java_sqlite4a_SQLiteValue_nativeDoubleValue(JNIEnv *env, jclass type, jlong jptr
 extern "C" JNIEXPORT jstring JNICALL
 Java_sqlite4a_SQLiteValue_nativeStringValue(JNIEnv *env, jclass type, jlong jptr) {
     sqlite3_value *value = reinterpret_cast<sqlite3_value *>(jptr);
-    const unsigned char *text = sqlite3_value_text(value);
-    return env->NewStringUTF(reinterpret_cast<const char *>(text));
+    const void *text = sqlite3_value_text16(value);
+    if (!text) {
+        return nullptr;
+    }
+    return env->NewString(static_cast<const jchar *>(text), sqlite3_value_bytes16(value) / 2);
 }
 
 extern "C" JNIEXPORT jbyteArray JNICALL
@@ -461,9 +2391,10 @@ Java_sqlite4a_SQLiteContext_nativeResultLong(JNIEnv *env, jclass type, jlong jpt
 extern "C" JNIEXPORT void JNICALL
 Java_sqlite4a_SQLiteContext_nativeResultText(JNIEnv *env, jclass type, jlong jptr, jstring resultStr) {
     sqlite3_context *context = reinterpret_cast<sqlite3_context *>(jptr);
-    const char *result = env->GetStringUTFChars(resultStr, nullptr);
-    sqlite3_result_text(context, result, static_cast<int>(strlen(result)), SQLITE_TRANSIENT);
-    env->ReleaseStringUTFChars(resultStr, result);
+    jsize length = env->GetStringLength(resultStr);
+    const jchar *result = env->GetStringCritical(resultStr, nullptr);
+    sqlite3_result_text16(context, result, length * 2, SQLITE_TRANSIENT);
+    env->ReleaseStringCritical(resultStr, result);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -478,3 +2409,74 @@ Java_sqlite4a_SQLiteContext_nativeResultBlob(JNIEnv *env, jclass type, jlong jpt
     sqlite3_result_blob(context, result, env->GetArrayLength(resultArr), SQLITE_TRANSIENT);
     env->ReleaseByteArrayElements(resultArr, result, 0);
 }
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeClose(JNIEnv *env, jclass type, jlong jptr) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    sqlite3_blob_close(blob->handle);
+    delete blob;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_sqlite4a_SQLiteBlob_nativeBytes(JNIEnv *env, jclass type, jlong jptr) {
+    return sqlite3_blob_bytes(reinterpret_cast<SQLiteBlob *>(jptr)->handle);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeReopen(JNIEnv *env, jclass type, jlong jptr, jlong rowid) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    int ret = sqlite3_blob_reopen(blob->handle, rowid);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(blob->db));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeReadDirect(JNIEnv *env, jclass type, jlong jptr, jobject jdst, jint dstOffset,
+                                          jint length, jint offset) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    jbyte *dst = static_cast<jbyte *>(env->GetDirectBufferAddress(jdst));
+    int ret = sqlite3_blob_read(blob->handle, dst + dstOffset, length, offset);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(blob->db));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeReadArray(JNIEnv *env, jclass type, jlong jptr, jbyteArray jdst, jint dstOffset,
+                                         jint length, jint offset) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    std::vector<jbyte> chunk(static_cast<size_t>(length));
+    int ret = sqlite3_blob_read(blob->handle, chunk.data(), length, offset);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(blob->db));
+        return;
+    }
+    env->SetByteArrayRegion(jdst, dstOffset, length, chunk.data());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeWriteDirect(JNIEnv *env, jclass type, jlong jptr, jobject jsrc, jint srcOffset,
+                                           jint length, jint offset) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    jbyte *src = static_cast<jbyte *>(env->GetDirectBufferAddress(jsrc));
+    int ret = sqlite3_blob_write(blob->handle, src + srcOffset, length, offset);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(blob->db));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_sqlite4a_SQLiteBlob_nativeWriteArray(JNIEnv *env, jclass type, jlong jptr, jbyteArray jsrc, jint srcOffset,
+                                          jint length, jint offset) {
+    SQLiteBlob *blob = reinterpret_cast<SQLiteBlob *>(jptr);
+    std::vector<jbyte> chunk(static_cast<size_t>(length));
+    env->GetByteArrayRegion(jsrc, srcOffset, length, chunk.data());
+    if (env->ExceptionCheck()) {
+        return;
+    }
+    int ret = sqlite3_blob_write(blob->handle, chunk.data(), length, offset);
+    if (SQLITE_OK != ret) {
+        throw_sqlite_exception(env, sqlite3_errmsg(blob->db));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+abstract class AbstractRowIterator implements SQLiteIterator, SQLiteRow {
+
+    final SQLiteStmt mStmt;
+
+    final long mStmtPtr;
+
+    private String[] mColumnNames;
+
+    private Map<String, Integer> mColumnIndices;
+
+    private RowBinder<?> mBinder;
+
+    private int[] mBinderIndices;
+
+    AbstractRowIterator(SQLiteStmt stmt, long stmtPtr) {
+        mStmt = stmt;
+        mStmtPtr = stmtPtr;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        mStmt.close();
+    }
+
+    @NonNull
+    public String getColumnName(int index) {
+        if (mColumnNames == null) {
+            mColumnNames = new String[getColumnCount()];
+        }
+        String name = mColumnNames[index];
+        if (name == null) {
+            name = RowIterator.nativeGetColumnName(mStmtPtr, index);
+            mColumnNames[index] = name;
+        }
+        return name;
+    }
+
+    public int getColumnIndex(@NonNull String name) {
+        if (mColumnIndices == null) {
+            final int columnCount = getColumnCount();
+            mColumnIndices = new HashMap<>(columnCount * 2);
+            for (int i = columnCount - 1; i >= 0; --i) {
+                mColumnIndices.put(getColumnName(i), i);
+            }
+        }
+        final Integer index = mColumnIndices.get(name);
+        return index != null ? index : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T next(@NonNull Class<T> type) {
+        final SQLiteRow row = next();
+        if (mBinder == null || mBinder.getType() != type) {
+            mBinder = RowBinder.of(type);
+            mBinderIndices = mBinder.resolve(this);
+        }
+        return ((RowBinder<T>) mBinder).bind(row, mBinderIndices);
+    }
+
+    @NonNull
+    public <T> List<T> toList(@NonNull Class<T> type) {
+        final List<T> list = new ArrayList<>();
+        while (hasNext()) {
+            list.add(next(type));
+        }
+        return list;
+    }
+
+    public int nextLongs(int index, @NonNull long[] dst, int offset) {
+        int count = 0;
+        while (offset + count < dst.length && hasNext()) {
+            dst[offset + count] = next().getColumnLong(index);
+            ++count;
+        }
+        return count;
+    }
+
+    public int nextDoubles(int index, @NonNull double[] dst, int offset) {
+        int count = 0;
+        while (offset + count < dst.length && hasNext()) {
+            dst[offset + count] = next().getColumnDouble(index);
+            ++count;
+        }
+        return count;
+    }
+
+}
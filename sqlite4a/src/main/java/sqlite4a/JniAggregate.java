@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+class JniAggregate extends JniCallback {
+
+    private final SQLiteDb.AggregateFactory mFactory;
+
+    JniAggregate(SQLiteDb.AggregateFactory factory) {
+        mFactory = factory;
+    }
+
+    Object create() {
+        return mFactory.create();
+    }
+
+    void step(Object aggregate, long contextPtr, long[] valuePtrs) {
+        ((SQLiteDb.Aggregate) aggregate).step(new SQLiteContext(contextPtr), wrap(valuePtrs));
+    }
+
+    void step(Object aggregate, long contextPtr, int argc, long value0, long value1, long value2) {
+        if (!enter()) {
+            step(aggregate, contextPtr, pointers(argc, value0, value1, value2));
+            return;
+        }
+        try {
+            ((SQLiteDb.Aggregate) aggregate).step(context(contextPtr), values(argc, value0, value1, value2));
+        } finally {
+            exit();
+        }
+    }
+
+    void finish(Object aggregate, long contextPtr) {
+        final SQLiteDb.Aggregate target = aggregate != null ? (SQLiteDb.Aggregate) aggregate : mFactory.create();
+        target.finish(new SQLiteContext(contextPtr));
+    }
+
+}
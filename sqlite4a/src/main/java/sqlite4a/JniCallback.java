@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+/**
+ * Reuses the context and value wrappers handed to Java callbacks for up to {@link #FAST_PATH_ARGS} arguments.
+ * A nested invocation of the same callback falls back to fresh wrappers.
+ */
+abstract class JniCallback {
+
+    static final int FAST_PATH_ARGS = 3;
+
+    private final SQLiteContext mContext = new SQLiteContext(0);
+
+    private final SQLiteValue[][] mValues = new SQLiteValue[FAST_PATH_ARGS + 1][];
+
+    private boolean mInCall;
+
+    JniCallback() {
+        for (int argc = 0; argc <= FAST_PATH_ARGS; ++argc) {
+            mValues[argc] = new SQLiteValue[argc];
+            for (int i = 0; i < argc; ++i) {
+                mValues[argc][i] = new SQLiteValue(0);
+            }
+        }
+    }
+
+    static SQLiteValue[] wrap(long[] valuePtrs) {
+        final SQLiteValue[] values = new SQLiteValue[valuePtrs.length];
+        for (int i = 0; i < valuePtrs.length; ++i) {
+            values[i] = new SQLiteValue(valuePtrs[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return false if the shared wrappers are already in use by an outer call
+     */
+    boolean enter() {
+        if (mInCall) {
+            return false;
+        }
+        mInCall = true;
+        return true;
+    }
+
+    void exit() {
+        mInCall = false;
+    }
+
+    SQLiteContext context(long contextPtr) {
+        mContext.reset(contextPtr);
+        return mContext;
+    }
+
+    SQLiteValue[] values(int argc, long value0, long value1, long value2) {
+        final SQLiteValue[] values = mValues[argc];
+        if (argc > 0) {
+            values[0].reset(value0);
+        }
+        if (argc > 1) {
+            values[1].reset(value1);
+        }
+        if (argc > 2) {
+            values[2].reset(value2);
+        }
+        return values;
+    }
+
+    static long[] pointers(int argc, long value0, long value1, long value2) {
+        final long[] valuePtrs = new long[argc];
+        if (argc > 0) {
+            valuePtrs[0] = value0;
+        }
+        if (argc > 1) {
+            valuePtrs[1] = value1;
+        }
+        if (argc > 2) {
+            valuePtrs[2] = value2;
+        }
+        return valuePtrs;
+    }
+
+}
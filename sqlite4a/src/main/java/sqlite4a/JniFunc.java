@@ -16,7 +16,7 @@
 
 package sqlite4a;
 
-class JniFunc {
+class JniFunc extends JniCallback {
 
     private final SQLiteDb.Func mFunc;
 
@@ -25,11 +25,19 @@ class JniFunc {
     }
 
     void call(long contextPtr, long[] valuePtrs) {
-        final SQLiteValue[] values = new SQLiteValue[valuePtrs.length];
-        for (int i = 0; i < valuePtrs.length; ++i) {
-            values[i] = new SQLiteValue(valuePtrs[i]);
+        mFunc.call(new SQLiteContext(contextPtr), wrap(valuePtrs));
+    }
+
+    void call(long contextPtr, int argc, long value0, long value1, long value2) {
+        if (!enter()) {
+            call(contextPtr, pointers(argc, value0, value1, value2));
+            return;
+        }
+        try {
+            mFunc.call(context(contextPtr), values(argc, value0, value1, value2));
+        } finally {
+            exit();
         }
-        mFunc.call(new SQLiteContext(contextPtr), values);
     }
 
 }
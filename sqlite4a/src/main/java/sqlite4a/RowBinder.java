@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+class RowBinder<T> {
+
+    private static final ConcurrentMap<Class<?>, RowBinder<?>> BINDERS = new ConcurrentHashMap<>();
+
+    private static final int KIND_LONG = 0;
+
+    private static final int KIND_INT = 1;
+
+    private static final int KIND_SHORT = 2;
+
+    private static final int KIND_BYTE = 3;
+
+    private static final int KIND_BOOLEAN = 4;
+
+    private static final int KIND_DOUBLE = 5;
+
+    private static final int KIND_FLOAT = 6;
+
+    private static final int KIND_STRING = 7;
+
+    private static final int KIND_BLOB = 8;
+
+    private final Class<T> mType;
+
+    private final Constructor<T> mConstructor;
+
+    private final Field[] mFields;
+
+    private final String[] mColumns;
+
+    private final int[] mKinds;
+
+    private RowBinder(Class<T> type, Constructor<T> constructor, List<Field> fields) {
+        mType = type;
+        mConstructor = constructor;
+        mFields = fields.toArray(new Field[fields.size()]);
+        mColumns = new String[mFields.length];
+        mKinds = new int[mFields.length];
+        for (int i = 0; i < mFields.length; ++i) {
+            mColumns[i] = mFields[i].getAnnotation(SQLiteColumn.class).value();
+            mKinds[i] = kindOf(mFields[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> RowBinder<T> of(Class<T> type) {
+        RowBinder<T> binder = (RowBinder<T>) BINDERS.get(type);
+        if (binder == null) {
+            binder = create(type);
+            final RowBinder<T> existing = (RowBinder<T>) BINDERS.putIfAbsent(type, binder);
+            if (existing != null) {
+                binder = existing;
+            }
+        }
+        return binder;
+    }
+
+    private static <T> RowBinder<T> create(Class<T> type) {
+        final List<Field> fields = new ArrayList<>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                if (field.isAnnotationPresent(SQLiteColumn.class) && !Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        try {
+            final Constructor<T> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new RowBinder<>(type, constructor, fields);
+        } catch (NoSuchMethodException e) {
+            throw new SQLiteException(e);
+        }
+    }
+
+    private static int kindOf(Field field) {
+        final Class<?> type = field.getType();
+        if (long.class == type) {
+            return KIND_LONG;
+        } else if (int.class == type) {
+            return KIND_INT;
+        } else if (short.class == type) {
+            return KIND_SHORT;
+        } else if (byte.class == type) {
+            return KIND_BYTE;
+        } else if (boolean.class == type) {
+            return KIND_BOOLEAN;
+        } else if (double.class == type) {
+            return KIND_DOUBLE;
+        } else if (float.class == type) {
+            return KIND_FLOAT;
+        } else if (String.class == type) {
+            return KIND_STRING;
+        } else if (byte[].class == type) {
+            return KIND_BLOB;
+        }
+        throw new SQLiteException("Unsupported column field type: " + field);
+    }
+
+    Class<T> getType() {
+        return mType;
+    }
+
+    int[] resolve(SQLiteRow row) {
+        final int[] indices = new int[mColumns.length];
+        for (int i = 0; i < mColumns.length; ++i) {
+            indices[i] = row.getColumnIndex(mColumns[i]);
+            if (indices[i] < 0) {
+                throw new SQLiteException("No such column: " + mColumns[i] + ", required by " + mType.getName());
+            }
+        }
+        return indices;
+    }
+
+    T bind(SQLiteRow row, int[] indices) {
+        try {
+            final T object = mConstructor.newInstance();
+            for (int i = 0; i < mFields.length; ++i) {
+                final Field field = mFields[i];
+                final int index = indices[i];
+                switch (mKinds[i]) {
+                    case KIND_LONG:
+                        field.setLong(object, row.getColumnLong(index));
+                        break;
+                    case KIND_INT:
+                        field.setInt(object, (int) row.getColumnLong(index));
+                        break;
+                    case KIND_SHORT:
+                        field.setShort(object, (short) row.getColumnLong(index));
+                        break;
+                    case KIND_BYTE:
+                        field.setByte(object, (byte) row.getColumnLong(index));
+                        break;
+                    case KIND_BOOLEAN:
+                        field.setBoolean(object, row.getColumnLong(index) != 0);
+                        break;
+                    case KIND_DOUBLE:
+                        field.setDouble(object, row.getColumnDouble(index));
+                        break;
+                    case KIND_FLOAT:
+                        field.setFloat(object, (float) row.getColumnDouble(index));
+                        break;
+                    case KIND_STRING:
+                        field.set(object, row.getColumnString(index));
+                        break;
+                    default:
+                        field.set(object, row.getColumnBlob(index));
+                        break;
+                }
+            }
+            return object;
+        } catch (InstantiationException e) {
+            throw new SQLiteException(e);
+        } catch (IllegalAccessException e) {
+            throw new SQLiteException(e);
+        } catch (InvocationTargetException e) {
+            throw new SQLiteException(e.getCause());
+        }
+    }
+
+}
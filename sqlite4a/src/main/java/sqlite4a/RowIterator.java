@@ -18,29 +18,35 @@ package sqlite4a;
 
 import android.support.annotation.NonNull;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.NoSuchElementException;
 
-class RowIterator implements SQLiteIterator, SQLiteRow {
+class RowIterator extends AbstractRowIterator {
 
     private static final int SQLITE_ROW = 100;
 
     private static final int SQLITE_DONE = 101;
 
-    private final long mStmtPtr;
+    private int mColumnCount = -1;
 
     private boolean mHasNext;
 
     private boolean mDone;
 
-    RowIterator(long stmtPtr) {
-        mStmtPtr = stmtPtr;
+    RowIterator(SQLiteStmt stmt, long stmtPtr) {
+        super(stmt, stmtPtr);
     }
 
     private static native int nativeStep(long ptr);
 
-    private static native int nativeGetColumnCount(long ptr);
+    static native int nativeGetColumnCount(long ptr);
 
-    private static native String nativeGetColumnName(long ptr, int index);
+    static native String nativeGetColumnName(long ptr, int index);
+
+    private static native int nativeGetColumnType(long ptr, int index);
+
+    private static native int nativeGetColumnTypes(long ptr, int[] types);
 
     private static native long nativeGetColumnLong(long ptr, int index);
 
@@ -48,11 +54,21 @@ class RowIterator implements SQLiteIterator, SQLiteRow {
 
     private static native String nativeGetColumnString(long ptr, int index);
 
+    private static native int nativeGetColumnChars(long ptr, int index, char[] dst, int offset, int length);
+
+    private static native int nativeCompareColumnString(long ptr, int index, String value);
+
     private static native byte[] nativeGetColumnBlob(long ptr, int index);
 
+    private static native int nativeGetColumnDirectBlob(long ptr, int index, ByteBuffer dst, int offset, int length);
+
+    private static native int nativeGetColumnArrayBlob(long ptr, int index, byte[] dst, int offset, int length);
+
     @Override
     public boolean hasNext() {
         if (!mDone) {
+            // a failed step throws and leaves the iterator done
+            mDone = true;
             final int step = nativeStep(mStmtPtr);
             mDone = step == SQLITE_DONE;
             mHasNext = step == SQLITE_ROW;
@@ -69,23 +85,23 @@ class RowIterator implements SQLiteIterator, SQLiteRow {
         throw new NoSuchElementException();
     }
 
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException();
+    public int getColumnCount() {
+        if (mColumnCount < 0) {
+            mColumnCount = nativeGetColumnCount(mStmtPtr);
+        }
+        return mColumnCount;
     }
 
-    @Override
-    public void close() {
-        SQLiteStmt.nativeFinalize(mStmtPtr);
+    public int getColumnType(int index) {
+        return nativeGetColumnType(mStmtPtr, index);
     }
 
-    public int getColumnCount() {
-        return nativeGetColumnCount(mStmtPtr);
+    public int getColumnTypes(@NonNull int[] types) {
+        return nativeGetColumnTypes(mStmtPtr, types);
     }
 
-    @NonNull
-    public String getColumnName(int index) {
-        return nativeGetColumnName(mStmtPtr, index);
+    public boolean isNull(int index) {
+        return nativeGetColumnType(mStmtPtr, index) == SQLite.TYPE_NULL;
     }
 
     public long getColumnLong(int index) {
@@ -100,8 +116,51 @@ class RowIterator implements SQLiteIterator, SQLiteRow {
         return nativeGetColumnString(mStmtPtr, index);
     }
 
+    public int getColumnChars(int index, @NonNull char[] dst, int offset) {
+        return nativeGetColumnChars(mStmtPtr, index, dst, offset, dst.length - offset);
+    }
+
+    public int getColumnChars(int index, @NonNull CharBuffer dst) {
+        if (dst.hasArray()) {
+            final int length = nativeGetColumnChars(mStmtPtr, index, dst.array(),
+                    dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + Math.min(Math.max(length, 0), dst.remaining()));
+            return length;
+        }
+        final String value = nativeGetColumnString(mStmtPtr, index);
+        if (value == null) {
+            return -1;
+        }
+        dst.put(value, 0, Math.min(value.length(), dst.remaining()));
+        return value.length();
+    }
+
+    public int compareColumnString(int index, String value) {
+        return nativeCompareColumnString(mStmtPtr, index, value);
+    }
+
+    public boolean columnEquals(int index, String value) {
+        return nativeCompareColumnString(mStmtPtr, index, value) == 0;
+    }
+
     public byte[] getColumnBlob(int index) {
         return nativeGetColumnBlob(mStmtPtr, index);
     }
 
+    public int getColumnBlob(int index, @NonNull ByteBuffer dst) {
+        final int size;
+        if (dst.isDirect()) {
+            size = nativeGetColumnDirectBlob(mStmtPtr, index, dst, dst.position(), dst.remaining());
+        } else if (dst.hasArray()) {
+            size = nativeGetColumnArrayBlob(mStmtPtr, index, dst.array(), dst.arrayOffset() + dst.position(),
+                    dst.remaining());
+        } else {
+            final byte[] blob = nativeGetColumnBlob(mStmtPtr, index);
+            dst.put(blob, 0, Math.min(blob.length, dst.remaining()));
+            return blob.length;
+        }
+        dst.position(dst.position() + Math.min(size, dst.remaining()));
+        return size;
+    }
+
 }
@@ -38,6 +38,32 @@ public class SQLite {
 
     public static final int OPEN_FULLMUTEX = 0x00010000;
 
+    /**
+     * VFS that stores the pages of the main database deflated, selected with {@link #OPEN_URI} and
+     * {@code file:/path/to.db?vfs=sqlite4a-deflate}. Optional URI parameters are {@code deflate_level} (0-9)
+     * and {@code deflate_cache}, the number of inflated pages cached per file. Without it the cache follows
+     * {@code PRAGMA cache_size}, the last value set on any connection to the file (2000 KiB by default).
+     * Each page keeps its own slot and the unused tail becomes a file hole, so use a page size of at least
+     * 8 KiB, 64 KiB compresses best. A file must always be opened with this VFS, and only from one process.
+     */
+    public static final String VFS_DEFLATE = "sqlite4a-deflate";
+
+    /**
+     * Same arguments always produce the same result, lets SQLite fold constant calls
+     * and use the function in indexes on expressions and partial indexes.
+     */
+    public static final int FUNC_DETERMINISTIC = 0x800;
+
+    public static final int TYPE_INTEGER = 1;
+
+    public static final int TYPE_FLOAT = 2;
+
+    public static final int TYPE_TEXT = 3;
+
+    public static final int TYPE_BLOB = 4;
+
+    public static final int TYPE_NULL = 5;
+
     public static native long getLibVersion();
 
     @NonNull
@@ -45,8 +71,67 @@ public class SQLite {
         return new SQLiteDb(nativeOpen(path, flags));
     }
 
+    @NonNull
+    public static SQLiteDb open(@NonNull String path, @OpenFlags int flags, @NonNull SQLiteConfig config) {
+        final SQLiteDb db = open(path, flags);
+        try {
+            config.apply(db);
+        } catch (SQLiteException e) {
+            db.close();
+            throw e;
+        }
+        return db;
+    }
+
     private static native long nativeOpen(String path, int flags);
 
+    private static native long[] nativeStatus(boolean reset);
+
+    private static native long nativeSoftHeapLimit(long limit);
+
+    private static native long nativeHardHeapLimit(long limit);
+
+    /**
+     * @param reset resets highwater marks after the snapshot is taken
+     */
+    @NonNull
+    public static SQLiteStatus getStatus(boolean reset) {
+        return new SQLiteStatus(nativeStatus(reset));
+    }
+
+    /**
+     * Advisory limit, SQLite starts releasing cached pages when the heap grows above it; 0 disables the limit.
+     * The default is 8MB.
+     *
+     * @return previous limit
+     */
+    public static long setSoftHeapLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must be >= 0");
+        }
+        return nativeSoftHeapLimit(bytes);
+    }
+
+    public static long getSoftHeapLimit() {
+        return nativeSoftHeapLimit(-1);
+    }
+
+    /**
+     * Allocations that would grow the SQLite heap above this limit fail with SQLITE_NOMEM; 0 disables the limit.
+     *
+     * @return previous limit
+     */
+    public static long setHardHeapLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes must be >= 0");
+        }
+        return nativeHardHeapLimit(bytes);
+    }
+
+    public static long getHardHeapLimit() {
+        return nativeHardHeapLimit(-1);
+    }
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef(value = {
             OPEN_READONLY,
@@ -60,4 +145,24 @@ public class SQLite {
 
     }
 
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            FUNC_DETERMINISTIC
+    }, flag = true)
+    public @interface FuncFlags {
+
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            TYPE_INTEGER,
+            TYPE_FLOAT,
+            TYPE_TEXT,
+            TYPE_BLOB,
+            TYPE_NULL
+    })
+    public @interface ColumnType {
+
+    }
+
 }
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs tasks against a single connection on a dedicated serial worker thread.
+ * Writes queued back to back are applied in one transaction, each in its own savepoint, so a failing
+ * or cancelled write does not affect the others. Cancelling a running read or a write that has the
+ * transaction to itself interrupts the connection; a write sharing the transaction with others is
+ * not interrupted, it runs to completion and is then rolled back to its savepoint.
+ * The connection must not be used directly while owned by this object; {@link #close()} closes it
+ * after all queued tasks are done.
+ */
+public class SQLiteAsync implements Closeable {
+
+    private static final int STATE_PENDING = 0;
+
+    private static final int STATE_RUNNING = 1;
+
+    private static final int STATE_DONE = 2;
+
+    private static final int STATE_CANCELLED = 3;
+
+    private final SQLiteDb mDb;
+
+    private final Executor mCallbackExecutor;
+
+    private final ArrayDeque<Job<?>> mQueue = new ArrayDeque<>();
+
+    private boolean mClosed;
+
+    /**
+     * @param callbackExecutor executor for {@link Callback} calls, null to call back on the worker thread
+     */
+    public SQLiteAsync(@NonNull SQLiteDb db, @Nullable Executor callbackExecutor) {
+        mDb = db;
+        mCallbackExecutor = callbackExecutor;
+        final Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "SQLiteAsync");
+        worker.start();
+    }
+
+    @NonNull
+    public <T> Future<T> read(@NonNull Task<T> task, @Nullable Callback<T> callback) {
+        return submit(new Job<>(task, callback, false));
+    }
+
+    @NonNull
+    public <T> Future<T> write(@NonNull Task<T> task, @Nullable Callback<T> callback) {
+        return submit(new Job<>(task, callback, true));
+    }
+
+    /**
+     * Stops accepting tasks, does not wait for queued ones.
+     */
+    @Override
+    public void close() {
+        synchronized (mQueue) {
+            mClosed = true;
+            mQueue.notifyAll();
+        }
+    }
+
+    private <T> Future<T> submit(Job<T> job) {
+        synchronized (mQueue) {
+            if (mClosed) {
+                throw new IllegalStateException("SQLiteAsync is closed");
+            }
+            mQueue.add(job);
+            mQueue.notifyAll();
+        }
+        return job;
+    }
+
+    private void loop() {
+        final List<Job<?>> batch = new ArrayList<>();
+        while (true) {
+            synchronized (mQueue) {
+                while (mQueue.isEmpty() && !mClosed) {
+                    try {
+                        mQueue.wait();
+                    } catch (InterruptedException ignored) {
+                        // keep serving until closed
+                    }
+                }
+                if (mQueue.isEmpty()) {
+                    break;
+                }
+                final Job<?> first = mQueue.poll();
+                batch.add(first);
+                while (first.mWrite && !mQueue.isEmpty() && mQueue.peek().mWrite) {
+                    batch.add(mQueue.poll());
+                }
+            }
+            if (batch.get(0).mWrite) {
+                runWrites(batch);
+            } else {
+                runRead(batch.get(0));
+            }
+            batch.clear();
+        }
+        mDb.close();
+    }
+
+    private void runRead(Job<?> job) {
+        if (job.start(true)) {
+            try {
+                job.execute();
+                job.succeed();
+            } catch (Throwable e) {
+                job.fail(e);
+            }
+        }
+    }
+
+    private void runWrites(List<Job<?>> batch) {
+        int pending = 0;
+        for (final Job<?> job : batch) {
+            if (!job.isDone()) {
+                ++pending;
+            }
+        }
+        if (pending == 0) {
+            return;
+        }
+        try {
+            mDb.exec("BEGIN IMMEDIATE;");
+        } catch (SQLiteException e) {
+            for (final Job<?> job : batch) {
+                if (job.start(false)) {
+                    job.fail(e);
+                }
+            }
+            return;
+        }
+        // interrupting the connection rolls back the whole transaction, so only a lone write may be interrupted
+        final boolean interruptible = pending == 1;
+        final List<Job<?>> applied = new ArrayList<>(batch.size());
+        for (final Job<?> job : batch) {
+            // jobs waiting for their turn stay pending, so cancelling one never interrupts another
+            if (!job.start(interruptible)) {
+                continue;
+            }
+            if (!mDb.inTransaction()) {
+                job.fail(new SQLiteException("Transaction was rolled back"));
+                continue;
+            }
+            try {
+                mDb.exec("SAVEPOINT async_write;");
+                job.execute();
+                if (job.isCancelled()) {
+                    mDb.exec("ROLLBACK TO async_write; RELEASE async_write;");
+                } else {
+                    mDb.exec("RELEASE async_write;");
+                    applied.add(job);
+                }
+            } catch (Throwable e) {
+                if (mDb.inTransaction()) {
+                    try {
+                        mDb.exec("ROLLBACK TO async_write; RELEASE async_write;");
+                    } catch (SQLiteException ignored) {
+                        // the transaction is rolled back below if it is still broken
+                    }
+                }
+                job.fail(e);
+            }
+        }
+        if (!mDb.inTransaction()) {
+            failAll(applied, new SQLiteException("Transaction was rolled back"));
+            return;
+        }
+        try {
+            mDb.exec("COMMIT;");
+        } catch (SQLiteException e) {
+            try {
+                mDb.exec("ROLLBACK;");
+            } catch (SQLiteException ignored) {
+                // nothing to roll back
+            }
+            failAll(applied, e);
+            return;
+        }
+        for (final Job<?> job : applied) {
+            job.succeed();
+        }
+    }
+
+    private static void failAll(List<Job<?>> jobs, Throwable e) {
+        for (final Job<?> job : jobs) {
+            job.fail(e);
+        }
+    }
+
+    public interface Task<T> {
+        T call(@NonNull SQLiteDb db);
+    }
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * @param e {@link CancellationException} if the task was cancelled
+         */
+        void onError(@NonNull Throwable e);
+    }
+
+    private final class Job<T> implements Future<T> {
+
+        final boolean mWrite;
+
+        private final Task<T> mTask;
+
+        private final Callback<T> mCallback;
+
+        private int mState = STATE_PENDING;
+
+        private boolean mExecuting;
+
+        private boolean mInterruptible;
+
+        private T mResult;
+
+        private Throwable mError;
+
+        Job(Task<T> task, Callback<T> callback, boolean write) {
+            mTask = task;
+            mCallback = callback;
+            mWrite = write;
+        }
+
+        synchronized boolean start(boolean interruptible) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = STATE_RUNNING;
+            mExecuting = true;
+            mInterruptible = interruptible;
+            return true;
+        }
+
+        void execute() {
+            try {
+                mResult = mTask.call(mDb);
+            } finally {
+                synchronized (this) {
+                    mExecuting = false;
+                }
+            }
+        }
+
+        void succeed() {
+            synchronized (this) {
+                if (mState != STATE_RUNNING) {
+                    return;
+                }
+                mState = STATE_DONE;
+                notifyAll();
+            }
+            dispatch();
+        }
+
+        void fail(Throwable e) {
+            synchronized (this) {
+                if (mState != STATE_RUNNING) {
+                    return;
+                }
+                mResult = null;
+                mError = e;
+                mState = STATE_DONE;
+                notifyAll();
+            }
+            dispatch();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (mState == STATE_PENDING || (mState == STATE_RUNNING && mExecuting && mayInterruptIfRunning)) {
+                    if (mState == STATE_RUNNING && mInterruptible) {
+                        mDb.interrupt();
+                    }
+                    mState = STATE_CANCELLED;
+                    notifyAll();
+                } else {
+                    return false;
+                }
+            }
+            dispatch();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mState == STATE_CANCELLED;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mState >= STATE_DONE;
+        }
+
+        @Override
+        public synchronized T get() throws InterruptedException, ExecutionException {
+            while (mState < STATE_DONE) {
+                wait();
+            }
+            return report();
+        }
+
+        @Override
+        public synchronized T get(long timeout, @NonNull TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (mState < STATE_DONE) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return report();
+        }
+
+        private T report() throws ExecutionException {
+            if (mState == STATE_CANCELLED) {
+                throw new CancellationException();
+            }
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+
+        private void dispatch() {
+            if (mCallback == null) {
+                return;
+            }
+            final Runnable delivery = new Runnable() {
+                @Override
+                public void run() {
+                    final int state;
+                    final T result;
+                    final Throwable error;
+                    synchronized (Job.this) {
+                        state = mState;
+                        result = mResult;
+                        error = mError;
+                    }
+                    if (state == STATE_CANCELLED) {
+                        mCallback.onError(new CancellationException());
+                    } else if (error != null) {
+                        mCallback.onError(error);
+                    } else {
+                        mCallback.onSuccess(result);
+                    }
+                }
+            };
+            if (mCallbackExecutor != null) {
+                mCallbackExecutor.execute(delivery);
+            } else {
+                delivery.run();
+            }
+        }
+
+    }
+
+}
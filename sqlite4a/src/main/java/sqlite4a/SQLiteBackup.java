@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+
+/**
+ * Online copy of a database, see https://sqlite.org/backup.html.
+ * The source is read-locked only while a step runs, writers can proceed between steps. Writes through the
+ * source connection are applied to the copy, writes through any other connection restart the copy.
+ */
+public class SQLiteBackup implements Closeable {
+
+    private static final int SQLITE_OK = 0;
+
+    private static final int SQLITE_BUSY = 5;
+
+    private static final int SQLITE_LOCKED = 6;
+
+    private static final long MAX_BUSY_DELAY_MS = 100;
+
+    private static final int SQLITE_DONE = 101;
+
+    private final long mBackupPtr;
+
+    private final SQLiteDb mOwnedDst;
+
+    private boolean mDone;
+
+    private boolean mBusy;
+
+    private boolean mClosed;
+
+    private SQLiteBackup(long backupPtr, SQLiteDb ownedDst) {
+        mBackupPtr = backupPtr;
+        mOwnedDst = ownedDst;
+    }
+
+    private static native long nativeInit(long dstPtr, String dstName, long srcPtr, String srcName);
+
+    private static native int nativeStep(long ptr, int pages);
+
+    private static native int nativeRemaining(long ptr);
+
+    private static native int nativePageCount(long ptr);
+
+    private static native void nativeFinish(long ptr);
+
+    @NonNull
+    public static SQLiteBackup open(@NonNull SQLiteDb dst, @NonNull SQLiteDb src) {
+        return open(dst, "main", src, "main");
+    }
+
+    /**
+     * @param dstName "main", "temp" or the name of an attached database
+     */
+    @NonNull
+    public static SQLiteBackup open(@NonNull SQLiteDb dst, @NonNull String dstName,
+                                    @NonNull SQLiteDb src, @NonNull String srcName) {
+        return new SQLiteBackup(nativeInit(dst.getDbPtr(), dstName, src.getDbPtr(), srcName), null);
+    }
+
+    /**
+     * Copies {@code src} into the database file at {@code dstPath}, the file is created if needed.
+     */
+    @NonNull
+    public static SQLiteBackup open(@NonNull String dstPath, @NonNull SQLiteDb src) {
+        final SQLiteDb dst = SQLite.open(dstPath, SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE);
+        try {
+            return new SQLiteBackup(nativeInit(dst.getDbPtr(), "main", src.getDbPtr(), "main"), dst);
+        } catch (SQLiteException e) {
+            dst.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies up to {@code pages} pages, a negative value copies all remaining pages.
+     * A step that finds either database locked copies nothing and can be retried later.
+     *
+     * @return true when the copy is complete
+     */
+    public boolean step(int pages) {
+        if (!mDone) {
+            final int ret = nativeStep(mBackupPtr, pages);
+            mDone = ret == SQLITE_DONE;
+            mBusy = ret == SQLITE_BUSY || ret == SQLITE_LOCKED;
+            if (ret != SQLITE_OK && ret != SQLITE_DONE) {
+                return false;
+            }
+        }
+        return mDone;
+    }
+
+    /**
+     * Runs steps of {@code pagesPerStep} pages, sleeping {@code sleepMs} between them, until the copy is complete.
+     * Steps that find a database locked back off up to {@value #MAX_BUSY_DELAY_MS} ms, also when {@code sleepMs} is 0.
+     */
+    public void run(int pagesPerStep, long sleepMs, @Nullable Progress progress) {
+        if (pagesPerStep == 0) {
+            throw new IllegalArgumentException("pagesPerStep must not be 0");
+        }
+        long busyDelayMs = 0;
+        while (!step(pagesPerStep)) {
+            if (progress != null) {
+                progress.onProgress(getRemaining(), getPageCount());
+            }
+            busyDelayMs = mBusy ? Math.min(Math.max(2 * busyDelayMs, 1), MAX_BUSY_DELAY_MS) : 0;
+            final long delayMs = Math.max(sleepMs, busyDelayMs);
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLiteException(e);
+                }
+            }
+        }
+        if (progress != null) {
+            progress.onProgress(0, getPageCount());
+        }
+    }
+
+    /**
+     * Pages left to copy as of the last step.
+     */
+    public int getRemaining() {
+        return nativeRemaining(mBackupPtr);
+    }
+
+    /**
+     * Source database size in pages as of the last step.
+     */
+    public int getPageCount() {
+        return nativePageCount(mBackupPtr);
+    }
+
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Releases the backup, an incomplete copy is left as is.
+     */
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            nativeFinish(mBackupPtr);
+        } finally {
+            if (mOwnedDst != null) {
+                mOwnedDst.close();
+            }
+        }
+    }
+
+    public interface Progress {
+        void onProgress(int remaining, int pageCount);
+    }
+
+}
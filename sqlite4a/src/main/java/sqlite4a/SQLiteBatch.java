@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Column-major bind arguments for {@link SQLiteStmt#executeBatch(SQLiteBatch, boolean)}
+ * and {@link SQLiteStmt#insertBatch(SQLiteBatch, boolean)}.
+ * Parameters without values and {@code null} elements of String/blob columns are bound as NULL.
+ */
+public class SQLiteBatch {
+
+    static final int TYPE_NULL = 0;
+
+    static final int TYPE_LONG = 1;
+
+    static final int TYPE_DOUBLE = 2;
+
+    static final int TYPE_STRING = 3;
+
+    static final int TYPE_BLOB = 4;
+
+    private final int mRowCount;
+
+    private int[] mTypes = new int[0];
+
+    private Object[] mColumns = new Object[0];
+
+    public SQLiteBatch(int rowCount) {
+        if (rowCount < 0) {
+            throw new IllegalArgumentException("rowCount must be >= 0");
+        }
+        mRowCount = rowCount;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    @NonNull
+    public SQLiteBatch bindLongs(int index, @NonNull long[] values) {
+        return bind(index, TYPE_LONG, values, values.length);
+    }
+
+    @NonNull
+    public SQLiteBatch bindDoubles(int index, @NonNull double[] values) {
+        return bind(index, TYPE_DOUBLE, values, values.length);
+    }
+
+    @NonNull
+    public SQLiteBatch bindStrings(int index, @NonNull String[] values) {
+        return bind(index, TYPE_STRING, values, values.length);
+    }
+
+    @NonNull
+    public SQLiteBatch bindBlobs(int index, @NonNull byte[][] values) {
+        return bind(index, TYPE_BLOB, values, values.length);
+    }
+
+    int[] getTypes() {
+        return mTypes;
+    }
+
+    Object[] getColumns() {
+        return mColumns;
+    }
+
+    private SQLiteBatch bind(int index, int type, Object values, int length) {
+        if (index < 1) {
+            throw new IllegalArgumentException("index must be >= 1");
+        }
+        if (length < mRowCount) {
+            throw new IllegalArgumentException("expected " + mRowCount + " values at index " + index
+                    + ", got " + length);
+        }
+        if (index > mTypes.length) {
+            final int[] types = new int[index];
+            System.arraycopy(mTypes, 0, types, 0, mTypes.length);
+            final Object[] columns = new Object[index];
+            System.arraycopy(mColumns, 0, columns, 0, mColumns.length);
+            mTypes = types;
+            mColumns = columns;
+        }
+        mTypes[index - 1] = type;
+        mColumns[index - 1] = values;
+        return this;
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental I/O handle for a single blob value, see {@link SQLiteDb#openBlob(String, String, long, boolean)}.
+ * The size of a blob can not be changed through this handle.
+ */
+public class SQLiteBlob implements Closeable {
+
+    private final long mBlobPtr;
+
+    private boolean mClosed;
+
+    SQLiteBlob(long blobPtr) {
+        mBlobPtr = blobPtr;
+    }
+
+    private static native void nativeClose(long ptr);
+
+    private static native int nativeBytes(long ptr);
+
+    private static native void nativeReopen(long ptr, long rowid);
+
+    private static native void nativeReadDirect(long ptr, ByteBuffer dst, int dstOffset, int length, int offset);
+
+    private static native void nativeReadArray(long ptr, byte[] dst, int dstOffset, int length, int offset);
+
+    private static native void nativeWriteDirect(long ptr, ByteBuffer src, int srcOffset, int length, int offset);
+
+    private static native void nativeWriteArray(long ptr, byte[] src, int srcOffset, int length, int offset);
+
+    public int length() {
+        return nativeBytes(blobPtr());
+    }
+
+    /**
+     * Points this handle to the same column of another row, cheaper than opening a new handle.
+     */
+    public void reopen(long rowid) {
+        nativeReopen(blobPtr(), rowid);
+    }
+
+    /**
+     * Reads up to {@code dst.remaining()} bytes starting at {@code offset} and advances the buffer position.
+     *
+     * @return number of bytes read, -1 if {@code offset} is at or beyond the end of the blob
+     */
+    public int read(long offset, @NonNull ByteBuffer dst) {
+        final int length = Math.min(dst.remaining(), length() - checkOffset(offset));
+        if (length <= 0) {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+        if (dst.isDirect()) {
+            nativeReadDirect(blobPtr(), dst, dst.position(), length, (int) offset);
+        } else if (dst.hasArray()) {
+            nativeReadArray(blobPtr(), dst.array(), dst.arrayOffset() + dst.position(), length, (int) offset);
+        } else {
+            final byte[] chunk = new byte[length];
+            nativeReadArray(blobPtr(), chunk, 0, length, (int) offset);
+            dst.put(chunk);
+            return length;
+        }
+        dst.position(dst.position() + length);
+        return length;
+    }
+
+    /**
+     * Writes {@code src.remaining()} bytes starting at {@code offset} and advances the buffer position.
+     * Fails if the write would go past the end of the blob.
+     */
+    public void write(long offset, @NonNull ByteBuffer src) {
+        final int length = src.remaining();
+        if (src.isDirect()) {
+            nativeWriteDirect(blobPtr(), src, src.position(), length, checkOffset(offset));
+        } else if (src.hasArray()) {
+            nativeWriteArray(blobPtr(), src.array(), src.arrayOffset() + src.position(), length, checkOffset(offset));
+        } else {
+            final byte[] chunk = new byte[length];
+            src.duplicate().get(chunk);
+            nativeWriteArray(blobPtr(), chunk, 0, length, checkOffset(offset));
+        }
+        src.position(src.position() + length);
+    }
+
+    @NonNull
+    public InputStream openInputStream() {
+        return new BlobInputStream();
+    }
+
+    @NonNull
+    public OutputStream openOutputStream() {
+        return new BlobOutputStream();
+    }
+
+    @Override
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            nativeClose(mBlobPtr);
+        }
+    }
+
+    private long blobPtr() {
+        if (mClosed) {
+            throw new SQLiteException("Blob is closed");
+        }
+        return mBlobPtr;
+    }
+
+    private static void checkBounds(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", length=" + b.length);
+        }
+    }
+
+    private static int checkOffset(long offset) {
+        if (offset < 0 || offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("offset out of range: " + offset);
+        }
+        return (int) offset;
+    }
+
+    private class BlobInputStream extends InputStream {
+
+        private int mPosition;
+
+        private int mMark;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            checkBounds(b, off, len);
+            final int length = Math.min(len, length() - mPosition);
+            if (length <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            try {
+                nativeReadArray(blobPtr(), b, off, length, mPosition);
+            } catch (SQLiteException e) {
+                throw new IOException(e);
+            }
+            mPosition += length;
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final int skipped = (int) Math.max(0, Math.min(n, length() - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.max(0, length() - mPosition);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            mPosition = mMark;
+        }
+
+    }
+
+    private class BlobOutputStream extends OutputStream {
+
+        private int mPosition;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            checkBounds(b, off, len);
+            if (mPosition + len > length()) {
+                throw new IOException("Write past the end of the blob, size=" + length());
+            }
+            try {
+                nativeWriteArray(blobPtr(), b, off, len, mPosition);
+            } catch (SQLiteException e) {
+                throw new IOException(e);
+            }
+            mPosition += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows changed by one committed transaction, see {@link SQLiteDb#setChangeListener(int, SQLiteDb.ChangeListener)}.
+ * Tables of attached databases are named {@code schema.table}.
+ */
+public class SQLiteChanges {
+
+    public static final int INSERT = 18;
+
+    public static final int DELETE = 9;
+
+    public static final int UPDATE = 23;
+
+    private final String[] mTables;
+
+    private final int[] mEntries;
+
+    private final long[] mRowids;
+
+    private final boolean mTruncated;
+
+    SQLiteChanges(String[] tables, int[] entries, long[] rowids, boolean truncated) {
+        mTables = tables;
+        mEntries = entries;
+        mRowids = rowids;
+        mTruncated = truncated;
+    }
+
+    /**
+     * All changed tables, complete even if the rows were {@link #isTruncated() truncated}.
+     */
+    @NonNull
+    public List<String> getTables() {
+        return Collections.unmodifiableList(Arrays.asList(mTables));
+    }
+
+    public boolean contains(@NonNull String table) {
+        for (final String name : mTables) {
+            if (name.equals(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the transaction changed more rows than the listener buffers or rows without a rowid to report,
+     * no rows are reported then.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    public int size() {
+        return mRowids.length;
+    }
+
+    @NonNull
+    public String getTable(int index) {
+        return mTables[mEntries[index] >>> 8];
+    }
+
+    /**
+     * @return one of {@link #INSERT}, {@link #UPDATE} or {@link #DELETE}
+     */
+    public int getOp(int index) {
+        return mEntries[index] & 0xff;
+    }
+
+    public long getRowid(int index) {
+        return mRowids[index];
+    }
+
+    /**
+     * Rowids changed in {@code table} in the order of the changes, may contain duplicates.
+     */
+    @NonNull
+    public long[] getRowids(@NonNull String table) {
+        final int tableIndex = Arrays.asList(mTables).indexOf(table);
+        if (tableIndex < 0) {
+            return new long[0];
+        }
+        final long[] rowids = new long[mRowids.length];
+        int count = 0;
+        for (int i = 0; i < mEntries.length; ++i) {
+            if (mEntries[i] >>> 8 == tableIndex) {
+                rowids[count++] = mRowids[i];
+            }
+        }
+        return Arrays.copyOf(rowids, count);
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteChanges{tables=" + Arrays.toString(mTables) + ", size=" + size() + ", truncated="
+                + mTruncated + "}";
+    }
+
+}
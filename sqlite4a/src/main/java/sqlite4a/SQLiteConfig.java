@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Connection settings applied by {@link SQLite#open(String, int, SQLiteConfig)} right after the database is opened.
+ * Settings that are not set keep the SQLite defaults.
+ */
+public class SQLiteConfig {
+
+    public static final int JOURNAL_DELETE = 0;
+
+    public static final int JOURNAL_TRUNCATE = 1;
+
+    public static final int JOURNAL_PERSIST = 2;
+
+    public static final int JOURNAL_MEMORY = 3;
+
+    public static final int JOURNAL_WAL = 4;
+
+    public static final int JOURNAL_OFF = 5;
+
+    public static final int SYNCHRONOUS_OFF = 0;
+
+    public static final int SYNCHRONOUS_NORMAL = 1;
+
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    public static final int SYNCHRONOUS_EXTRA = 3;
+
+    public static final int TEMP_STORE_DEFAULT = 0;
+
+    public static final int TEMP_STORE_FILE = 1;
+
+    public static final int TEMP_STORE_MEMORY = 2;
+
+    private static final String[] JOURNAL_MODES = {"DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF"};
+
+    private static final int UNSET = -1;
+
+    private long mMmapSize = UNSET;
+
+    private long mCacheSizeKb = UNSET;
+
+    private int mPageSize = UNSET;
+
+    private int mJournalMode = UNSET;
+
+    private int mSynchronous = UNSET;
+
+    private int mTempStore = UNSET;
+
+    private int mLookasideSlotSize = UNSET;
+
+    private int mLookasideSlotCount = UNSET;
+
+    /**
+     * Large cache, in-memory rollback journal and no fsync. A crash during the load may corrupt the database.
+     */
+    @NonNull
+    public static SQLiteConfig bulkLoad() {
+        return new SQLiteConfig()
+                .setCacheSizeKb(64 * 1024)
+                .setJournalMode(JOURNAL_MEMORY)
+                .setSynchronous(SYNCHRONOUS_OFF)
+                .setTempStore(TEMP_STORE_MEMORY);
+    }
+
+    /**
+     * WAL with memory-mapped reads.
+     */
+    @NonNull
+    public static SQLiteConfig readMostly() {
+        return new SQLiteConfig()
+                .setMmapSize(64 * 1024 * 1024)
+                .setCacheSizeKb(8 * 1024)
+                .setJournalMode(JOURNAL_WAL)
+                .setSynchronous(SYNCHRONOUS_NORMAL);
+    }
+
+    @NonNull
+    public static SQLiteConfig lowMemory() {
+        return new SQLiteConfig()
+                .setMmapSize(0)
+                .setCacheSizeKb(256)
+                .setTempStore(TEMP_STORE_FILE)
+                .setLookaside(64, 16);
+    }
+
+    /**
+     * @param bytes 0 disables memory-mapped I/O
+     */
+    @NonNull
+    public SQLiteConfig setMmapSize(long bytes) {
+        mMmapSize = checkNotNegative(bytes);
+        return this;
+    }
+
+    /**
+     * Page cache limit in KiB rather than pages, so it does not depend on the page size.
+     */
+    @NonNull
+    public SQLiteConfig setCacheSizeKb(long kb) {
+        mCacheSizeKb = checkNotNegative(kb);
+        return this;
+    }
+
+    /**
+     * Takes effect only for a new database or after VACUUM, and not in WAL mode.
+     */
+    @NonNull
+    public SQLiteConfig setPageSize(int bytes) {
+        if (bytes < 512 || bytes > 65536 || Integer.bitCount(bytes) != 1) {
+            throw new IllegalArgumentException("page size must be a power of two in [512, 65536]");
+        }
+        mPageSize = bytes;
+        return this;
+    }
+
+    @NonNull
+    public SQLiteConfig setJournalMode(@JournalMode int mode) {
+        mJournalMode = checkRange(mode, JOURNAL_DELETE, JOURNAL_OFF);
+        return this;
+    }
+
+    @NonNull
+    public SQLiteConfig setSynchronous(@Synchronous int level) {
+        mSynchronous = checkRange(level, SYNCHRONOUS_OFF, SYNCHRONOUS_EXTRA);
+        return this;
+    }
+
+    @NonNull
+    public SQLiteConfig setTempStore(@TempStore int store) {
+        mTempStore = checkRange(store, TEMP_STORE_DEFAULT, TEMP_STORE_MEMORY);
+        return this;
+    }
+
+    /**
+     * Per-connection small allocation pool, {@code slotCount} slots of {@code slotSize} bytes.
+     * 0 slots disables lookaside.
+     */
+    @NonNull
+    public SQLiteConfig setLookaside(int slotSize, int slotCount) {
+        mLookasideSlotSize = checkNotNegative(slotSize);
+        mLookasideSlotCount = checkNotNegative(slotCount);
+        return this;
+    }
+
+    void apply(SQLiteDb db) {
+        if (mLookasideSlotCount != UNSET) {
+            db.configLookaside(mLookasideSlotSize, mLookasideSlotCount);
+        }
+        if (mPageSize != UNSET) {
+            db.exec("PRAGMA page_size = " + mPageSize + ";");
+        }
+        if (mJournalMode != UNSET) {
+            db.exec("PRAGMA journal_mode = " + JOURNAL_MODES[mJournalMode] + ";");
+        }
+        if (mSynchronous != UNSET) {
+            db.exec("PRAGMA synchronous = " + mSynchronous + ";");
+        }
+        if (mCacheSizeKb != UNSET) {
+            db.exec("PRAGMA cache_size = -" + mCacheSizeKb + ";");
+        }
+        if (mMmapSize != UNSET) {
+            db.exec("PRAGMA mmap_size = " + mMmapSize + ";");
+        }
+        if (mTempStore != UNSET) {
+            db.exec("PRAGMA temp_store = " + mTempStore + ";");
+        }
+    }
+
+    private static int checkRange(int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("value must be in [" + min + ", " + max + "]");
+        }
+        return value;
+    }
+
+    private static int checkNotNegative(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must be >= 0");
+        }
+        return value;
+    }
+
+    private static long checkNotNegative(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must be >= 0");
+        }
+        return value;
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            JOURNAL_DELETE,
+            JOURNAL_TRUNCATE,
+            JOURNAL_PERSIST,
+            JOURNAL_MEMORY,
+            JOURNAL_WAL,
+            JOURNAL_OFF
+    })
+    public @interface JournalMode {
+
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            SYNCHRONOUS_OFF,
+            SYNCHRONOUS_NORMAL,
+            SYNCHRONOUS_FULL,
+            SYNCHRONOUS_EXTRA
+    })
+    public @interface Synchronous {
+
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            TEMP_STORE_DEFAULT,
+            TEMP_STORE_FILE,
+            TEMP_STORE_MEMORY
+    })
+    public @interface TempStore {
+
+    }
+
+}
@@ -18,12 +18,16 @@ package sqlite4a;
 
 public class SQLiteContext {
 
-    private final long mContextPtr;
+    private long mContextPtr;
 
     SQLiteContext(long contextPtr) {
         mContextPtr = contextPtr;
     }
 
+    void reset(long contextPtr) {
+        mContextPtr = contextPtr;
+    }
+
     private static native void nativeResultNull(long contextPtr);
 
     private static native void nativeResultLong(long contextPtr, long result);
@@ -16,15 +16,48 @@
 
 package sqlite4a;
 
+import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.io.Closeable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 
 public class SQLiteDb implements Closeable {
 
+    public static final int TRANSACTION_DEFERRED = 0;
+
+    public static final int TRANSACTION_IMMEDIATE = 1;
+
+    public static final int TRANSACTION_EXCLUSIVE = 2;
+
+    private static final int TXN_COMMIT = 3;
+
+    private static final int TXN_ROLLBACK = 4;
+
+    private static final int TXN_SAVEPOINT = 5;
+
+    private static final int TXN_RELEASE = 6;
+
+    private static final int TXN_ROLLBACK_TO = 7;
+
+    private static final int BUSY_RETRIES = 3;
+
+    private static final long BUSY_BACKOFF_MS = 10;
+
     private final long mDbPtr;
 
+    private final SQLiteStmtCache mStmtCache = new SQLiteStmtCache(0);
+
+    private int mTransactionDepth;
+
+    private boolean mClosed;
+
     SQLiteDb(long ptr) {
         mDbPtr = ptr;
     }
@@ -37,20 +70,83 @@ public class SQLiteDb implements Closeable {
 
     private static native int nativeGetAutocommit(long ptr);
 
+    private static native void nativeInterrupt(long ptr);
+
+    private static native void nativeTransaction(long ptr, int op, int depth);
+
+    private static native void nativeSetBusyBackoff(long ptr, int initialDelayMs, int maxDelayMs, int timeoutMs);
+
+    private static native void nativeSetBusyHandler(long ptr, BusyHandler handler);
+
+    private static native void nativeConfigLookaside(long ptr, int slotSize, int slotCount);
+
+    private static native long[] nativeStatus(long ptr, boolean reset);
+
+    private static native void nativeSetProgressHandler(long ptr, int opcodes, Progress func);
+
+    private static native void nativeSetChangeListener(long ptr, int maxRows, ChangeListener listener);
+
+    private static native void nativeSetMetricsEnabled(long ptr, int maxStatements);
+
+    private static native SQLiteMetrics[] nativeGetMetrics(long ptr, boolean reset);
+
     private static native void nativeExec(long ptr, String sql);
 
     private static native double nativeExecForDouble(long ptr, String sql);
 
     private static native long nativePrepare(long ptr, String sql);
 
+    private static native long nativeOpenBlob(long ptr, String table, String column, long rowid, boolean writable);
+
+    private static native byte[] nativeSerialize(long ptr);
+
+    private static native void nativeDeserializeDirect(long ptr, ByteBuffer image, int offset, int length);
+
+    private static native void nativeDeserializeArray(long ptr, byte[] image, int offset, int length);
+
     private static native void nativeCreateCollation(long ptr, String name, Comparator<String> comparator);
 
-    private static native void nativeCreateFunction(long ptr, String name, int numArgs, JniFunc func);
+    private static native void nativeCreateKeyCollation(long ptr, String name, int maxKeys, CollationKey key);
+
+    private static native void nativeCreateFunction(long ptr, String name, int numArgs, int flags, JniFunc func);
+
+    private static native void nativeCreateAggregate(long ptr, String name, int numArgs, JniAggregate aggregate);
 
     public void trace(@NonNull Trace func) {
         nativeTrace(mDbPtr, func);
     }
 
+    /**
+     * Collects {@link SQLiteMetrics} natively for up to {@code maxStatements} distinct statements,
+     * 0 disables collection and drops collected metrics. Executions of further statements are only counted in
+     * {@link SQLiteDbStatus#getMetricsDropped()}.
+     */
+    public void setMetricsEnabled(int maxStatements) {
+        nativeSetMetricsEnabled(mDbPtr, maxStatements);
+    }
+
+    @NonNull
+    public List<SQLiteMetrics> getMetrics() {
+        return Arrays.asList(nativeGetMetrics(mDbPtr, false));
+    }
+
+    /**
+     * Returns collected metrics and starts a new collection period. Counters are zeroed in place, statements
+     * already seen keep their entry and still count towards {@code maxStatements}.
+     */
+    @NonNull
+    public List<SQLiteMetrics> resetMetrics() {
+        return Arrays.asList(nativeGetMetrics(mDbPtr, true));
+    }
+
+    /**
+     * @param reset resets cache counters and highwater marks after the snapshot is taken
+     */
+    @NonNull
+    public SQLiteDbStatus getStatus(boolean reset) {
+        return new SQLiteDbStatus(nativeStatus(mDbPtr, reset));
+    }
+
     public boolean isReadOnly() {
         return nativeIsReadOnly(mDbPtr) != 0;
     }
@@ -59,6 +155,169 @@ public class SQLiteDb implements Closeable {
         return nativeGetAutocommit(mDbPtr) <= 0;
     }
 
+    /**
+     * Aborts statements currently running on this connection, safe to call from any thread.
+     * Interrupted statements fail with {@link SQLiteException}.
+     */
+    public void interrupt() {
+        nativeInterrupt(mDbPtr);
+    }
+
+    /**
+     * Calls {@code func} every {@code opcodes} virtual machine instructions of a running statement,
+     * the statement is interrupted when it returns true. Pass null to remove the handler.
+     */
+    public void setProgressHandler(int opcodes, @Nullable Progress func) {
+        if (func != null && opcodes <= 0) {
+            throw new IllegalArgumentException("opcodes must be > 0");
+        }
+        nativeSetProgressHandler(mDbPtr, opcodes, func);
+    }
+
+    /**
+     * Buffers the rows changed by each transaction natively and passes them to {@code listener} once when
+     * it commits, rolled back transactions are dropped. A {@code COMMIT} that fails with {@link SQLiteBusyException}
+     * keeps the changes buffered until the transaction ends. Past {@code maxRows} rows only the changed tables are
+     * kept. Changes undone by {@code ROLLBACK TO} are still reported. Rows removed by a {@code DELETE} without
+     * a {@code WHERE} clause and rows of {@code WITHOUT ROWID} tables have no rowid to report, such a transaction
+     * is delivered {@link SQLiteChanges#isTruncated() truncated} with the tables the statement writes to.
+     * Setting or removing the listener makes prepared statements recompile on their next step.
+     * Pass null to remove the listener.
+     */
+    public void setChangeListener(int maxRows, @Nullable ChangeListener listener) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows must be >= 0");
+        }
+        nativeSetChangeListener(mDbPtr, maxRows, listener);
+    }
+
+    /**
+     * Waits for a locked database with exponential backoff, starting at 1ms and capped at 100ms,
+     * for up to {@code timeoutMs}; 0 fails immediately. The default timeout is 2500ms.
+     */
+    public void setBusyTimeout(int timeoutMs) {
+        setBusyBackoff(1, 100, timeoutMs);
+    }
+
+    /**
+     * Native busy strategy: sleeps a jittered {@code initialDelayMs * 2^n}, capped at {@code maxDelayMs},
+     * until the lock is released or {@code timeoutMs} have passed since the first attempt.
+     * Use {@link SQLiteDbStatus} to see busy counters.
+     */
+    public void setBusyBackoff(int initialDelayMs, int maxDelayMs, int timeoutMs) {
+        if (initialDelayMs < 0 || maxDelayMs < initialDelayMs || timeoutMs < 0) {
+            throw new IllegalArgumentException("expected 0 <= initialDelayMs <= maxDelayMs and timeoutMs >= 0");
+        }
+        nativeSetBusyBackoff(mDbPtr, initialDelayMs, maxDelayMs, timeoutMs);
+    }
+
+    /**
+     * Replaces the native busy strategy with {@code handler}, call {@link #setBusyBackoff(int, int, int)}
+     * to switch back.
+     */
+    public void setBusyHandler(@NonNull BusyHandler handler) {
+        nativeSetBusyHandler(mDbPtr, handler);
+    }
+
+    public void beginTransaction() {
+        beginTransaction(TRANSACTION_IMMEDIATE);
+    }
+
+    /**
+     * Starts a transaction or, if one is already started with this method, a nested savepoint
+     * ({@code mode} is ignored then). Each call must be paired with {@link #commit()} or {@link #rollback()}.
+     */
+    public void beginTransaction(@TransactionMode int mode) {
+        if (mTransactionDepth == 0) {
+            nativeTransaction(mDbPtr, mode, 0);
+        } else {
+            nativeTransaction(mDbPtr, TXN_SAVEPOINT, mTransactionDepth);
+        }
+        ++mTransactionDepth;
+    }
+
+    /**
+     * Commits the transaction or releases the innermost savepoint. A top level commit that fails
+     * with {@link SQLiteBusyException} leaves the transaction open, so it can be retried or rolled back.
+     */
+    public void commit() {
+        checkTransaction();
+        if (mTransactionDepth > 1) {
+            nativeTransaction(mDbPtr, TXN_RELEASE, mTransactionDepth - 1);
+        } else {
+            try {
+                nativeTransaction(mDbPtr, TXN_COMMIT, 0);
+            } catch (SQLiteException e) {
+                if (!inTransaction()) {
+                    --mTransactionDepth;
+                }
+                throw e;
+            }
+        }
+        --mTransactionDepth;
+    }
+
+    /**
+     * Rolls back the transaction or the innermost savepoint.
+     */
+    public void rollback() {
+        checkTransaction();
+        --mTransactionDepth;
+        if (!inTransaction()) {
+            // already rolled back by SQLite, e.g. after an interrupt
+            return;
+        }
+        if (mTransactionDepth > 0) {
+            nativeTransaction(mDbPtr, TXN_ROLLBACK_TO, mTransactionDepth);
+            nativeTransaction(mDbPtr, TXN_RELEASE, mTransactionDepth);
+        } else {
+            nativeTransaction(mDbPtr, TXN_ROLLBACK, 0);
+        }
+    }
+
+    public int getTransactionDepth() {
+        return mTransactionDepth;
+    }
+
+    public void runInTransaction(@NonNull Runnable body) {
+        runInTransaction(TRANSACTION_IMMEDIATE, BUSY_RETRIES, body);
+    }
+
+    /**
+     * Runs {@code body} in a transaction, or in a savepoint if called inside another transaction.
+     * Changes are rolled back if {@code body} throws. A top level transaction that fails with
+     * {@link SQLiteBusyException} is retried up to {@code busyRetries} times with linear backoff.
+     */
+    public void runInTransaction(@TransactionMode int mode, int busyRetries, @NonNull Runnable body) {
+        for (int attempt = 0; ; ++attempt) {
+            final boolean topLevel = mTransactionDepth == 0;
+            try {
+                beginTransaction(mode);
+                try {
+                    body.run();
+                } catch (RuntimeException e) {
+                    rollback();
+                    throw e;
+                } catch (Error e) {
+                    rollback();
+                    throw e;
+                }
+                commitOrRollback();
+                return;
+            } catch (SQLiteBusyException e) {
+                if (!topLevel || attempt >= busyRetries) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(BUSY_BACKOFF_MS * (attempt + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLiteException(e);
+            }
+        }
+    }
+
     public void exec(@NonNull String sql) {
         nativeExec(mDbPtr, sql);
     }
@@ -70,28 +329,186 @@ public class SQLiteDb implements Closeable {
 
     @NonNull
     public SQLiteStmt prepare(@NonNull String sql) {
-        return new SQLiteStmt(nativePrepare(mDbPtr, sql));
+        final long stmtPtr = mStmtCache.take(sql);
+        if (stmtPtr != 0) {
+            return new SQLiteStmt(stmtPtr, sql, mStmtCache);
+        }
+        return new SQLiteStmt(nativePrepare(mDbPtr, sql), sql, mStmtCache);
+    }
+
+    /**
+     * Sets the max number of idle prepared statements kept by this connection, 0 disables caching.
+     * Cached statements are reset and their bindings cleared when {@link SQLiteStmt#close()} is called.
+     */
+    public void setStatementCacheSize(int size) {
+        mStmtCache.resize(size);
+    }
+
+    @NonNull
+    public SQLiteStmtCache getStatementCache() {
+        return mStmtCache;
+    }
+
+    @NonNull
+    public SQLiteBlob openBlob(@NonNull String table, @NonNull String column, long rowid, boolean writable) {
+        return new SQLiteBlob(nativeOpenBlob(mDbPtr, table, column, rowid, writable));
+    }
+
+    /**
+     * Returns a copy of the main database in the same format as its file on disk.
+     */
+    @NonNull
+    public byte[] serialize() {
+        return nativeSerialize(mDbPtr);
+    }
+
+    /**
+     * Replaces the main database with the image in the remaining bytes of {@code image}, e.g. a
+     * {@link java.nio.MappedByteBuffer} or the result of {@link #serialize()}. Pages of a direct buffer are read
+     * in place, the connection must be empty or use the same page size if it is an in-memory database.
+     * The buffer position is not changed.
+     */
+    public void deserialize(@NonNull ByteBuffer image) {
+        if (image.isDirect()) {
+            nativeDeserializeDirect(mDbPtr, image, image.position(), image.remaining());
+        } else if (image.hasArray()) {
+            nativeDeserializeArray(mDbPtr, image.array(), image.arrayOffset() + image.position(), image.remaining());
+        } else {
+            final byte[] copy = new byte[image.remaining()];
+            image.duplicate().get(copy);
+            nativeDeserializeArray(mDbPtr, copy, 0, copy.length);
+        }
     }
 
     public void createCollation(@NonNull String name, @NonNull Comparator<String> comparator) {
         nativeCreateCollation(mDbPtr, name, comparator);
     }
 
+    /**
+     * Registers a collation that compares precomputed byte keys with memcmp instead of calling back
+     * into Java on every comparison. Keys of up to {@code maxKeys} distinct values are cached natively,
+     * e.g. {@code Collator.getCollationKey(value).toByteArray()} gives a locale-aware ordering.
+     */
+    public void createCollation(@NonNull String name, int maxKeys, @NonNull CollationKey key) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be > 0");
+        }
+        nativeCreateKeyCollation(mDbPtr, name, maxKeys, key);
+    }
+
     public void createFunction(@NonNull String name, int numArgs, @NonNull Func func) {
-        nativeCreateFunction(mDbPtr, name, numArgs, new JniFunc(func));
+        createFunction(name, numArgs, 0, func);
+    }
+
+    public void createFunction(@NonNull String name, int numArgs, @SQLite.FuncFlags int flags, @NonNull Func func) {
+        nativeCreateFunction(mDbPtr, name, numArgs, flags, new JniFunc(func));
+    }
+
+    /**
+     * Registers an aggregate function, {@code factory} is called once per group.
+     */
+    public void createAggregate(@NonNull String name, int numArgs, @NonNull AggregateFactory factory) {
+        nativeCreateAggregate(mDbPtr, name, numArgs, new JniAggregate(factory));
+    }
+
+    private void commitOrRollback() {
+        try {
+            commit();
+        } catch (SQLiteException e) {
+            if (mTransactionDepth > 0) {
+                rollback();
+            }
+            throw e;
+        }
+    }
+
+    private void checkTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("No transaction started with beginTransaction()");
+        }
+    }
+
+    long getDbPtr() {
+        return mDbPtr;
+    }
+
+    void configLookaside(int slotSize, int slotCount) {
+        nativeConfigLookaside(mDbPtr, slotSize, slotCount);
     }
 
     @Override
     public void close() {
-        nativeClose(mDbPtr);
+        if (!mClosed) {
+            mClosed = true;
+            mStmtCache.close();
+            nativeClose(mDbPtr);
+        }
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {
+            TRANSACTION_DEFERRED,
+            TRANSACTION_IMMEDIATE,
+            TRANSACTION_EXCLUSIVE
+    })
+    public @interface TransactionMode {
+
     }
 
     public interface Trace {
         void trace(String sql);
     }
 
+    public interface BusyHandler {
+        /**
+         * Called on the connection thread while the database is locked by another connection.
+         * The handler does its own waiting, e.g. sleeps, before returning. An exception thrown here propagates
+         * from the blocked call.
+         *
+         * @param count   number of previous calls for the same lock attempt
+         * @param waitedMs time since the first call for this lock attempt
+         * @return true to try again, false to fail with {@link SQLiteBusyException}
+         */
+        boolean onBusy(int count, long waitedMs);
+    }
+
+    public interface Progress {
+        /**
+         * @return true to interrupt the running statement
+         */
+        boolean onProgress();
+    }
+
+    public interface ChangeListener {
+        /**
+         * Called on the committing thread once the commit has completed, an exception thrown here propagates
+         * from the call that committed but the transaction stays committed.
+         */
+        void onChanges(@NonNull SQLiteChanges changes);
+    }
+
+    public interface CollationKey {
+        @NonNull
+        byte[] key(@NonNull String value);
+    }
+
+    /**
+     * Context and values passed to the callback are only valid until it returns and may be reused
+     * for the next invocation.
+     */
     public interface Func {
         void call(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values);
     }
 
+    public interface Aggregate {
+        void step(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values);
+
+        void finish(@NonNull SQLiteContext context);
+    }
+
+    public interface AggregateFactory {
+        @NonNull
+        Aggregate create();
+    }
+
 }
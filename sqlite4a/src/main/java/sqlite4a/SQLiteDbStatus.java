@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+/**
+ * Per-connection statistics, see {@link SQLiteDb#getStatus(boolean)}.
+ * Memory values are in bytes, cache counters count pages since the connection was opened or reset.
+ */
+public class SQLiteDbStatus {
+
+    private static final int LOOKASIDE_USED = 0;
+
+    private static final int CACHE_USED = 2;
+
+    private static final int SCHEMA_USED = 4;
+
+    private static final int STMT_USED = 6;
+
+    private static final int LOOKASIDE_HIT = 8;
+
+    private static final int LOOKASIDE_MISS_SIZE = 10;
+
+    private static final int LOOKASIDE_MISS_FULL = 12;
+
+    private static final int CACHE_HIT = 14;
+
+    private static final int CACHE_MISS = 16;
+
+    private static final int CACHE_WRITE = 18;
+
+    private static final int DEFERRED_FKS = 20;
+
+    private static final int CACHE_USED_SHARED = 22;
+
+    private static final int BUSY_EVENTS = 24;
+
+    private static final int BUSY_RETRIES = 25;
+
+    private static final int BUSY_WAIT_NANOS = 26;
+
+    private static final int BUSY_TIMEOUTS = 27;
+
+    private static final int METRICS_DROPPED = 28;
+
+    private final long[] mValues;
+
+    SQLiteDbStatus(long[] values) {
+        mValues = values;
+    }
+
+    public long getCacheUsed() {
+        return mValues[CACHE_USED];
+    }
+
+    /**
+     * Page cache memory with caches shared between connections divided evenly among them.
+     */
+    public long getCacheUsedShared() {
+        return mValues[CACHE_USED_SHARED];
+    }
+
+    public long getCacheHits() {
+        return mValues[CACHE_HIT];
+    }
+
+    public long getCacheMisses() {
+        return mValues[CACHE_MISS];
+    }
+
+    public long getCacheWrites() {
+        return mValues[CACHE_WRITE];
+    }
+
+    public long getSchemaUsed() {
+        return mValues[SCHEMA_USED];
+    }
+
+    public long getStmtUsed() {
+        return mValues[STMT_USED];
+    }
+
+    /**
+     * Lookaside slots in use.
+     */
+    public long getLookasideUsed() {
+        return mValues[LOOKASIDE_USED];
+    }
+
+    public long getLookasideUsedHighwater() {
+        return mValues[LOOKASIDE_USED + 1];
+    }
+
+    public long getLookasideHits() {
+        return mValues[LOOKASIDE_HIT + 1];
+    }
+
+    public long getLookasideMissesSize() {
+        return mValues[LOOKASIDE_MISS_SIZE + 1];
+    }
+
+    public long getLookasideMissesFull() {
+        return mValues[LOOKASIDE_MISS_FULL + 1];
+    }
+
+    /**
+     * 1 if there are unresolved deferred foreign key constraints.
+     */
+    public long getDeferredForeignKeys() {
+        return mValues[DEFERRED_FKS];
+    }
+
+    /**
+     * Lock attempts that found the database busy.
+     */
+    public long getBusyEvents() {
+        return mValues[BUSY_EVENTS];
+    }
+
+    public long getBusyRetries() {
+        return mValues[BUSY_RETRIES];
+    }
+
+    /**
+     * Time spent in the busy handler.
+     */
+    public long getBusyWaitNanos() {
+        return mValues[BUSY_WAIT_NANOS];
+    }
+
+    /**
+     * Lock attempts given up by the busy handler.
+     */
+    public long getBusyTimeouts() {
+        return mValues[BUSY_TIMEOUTS];
+    }
+
+    /**
+     * Executions not recorded in {@link SQLiteMetrics} because {@code maxStatements} distinct statements
+     * were already collected.
+     */
+    public long getMetricsDropped() {
+        return mValues[METRICS_DROPPED];
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteDbStatus[cacheUsed=" + getCacheUsed()
+                + ", cacheHits=" + getCacheHits()
+                + ", cacheMisses=" + getCacheMisses()
+                + ", cacheWrites=" + getCacheWrites()
+                + ", schemaUsed=" + getSchemaUsed()
+                + ", stmtUsed=" + getStmtUsed()
+                + ", lookasideUsed=" + getLookasideUsed()
+                + ", busyEvents=" + getBusyEvents()
+                + ", busyWaitNanos=" + getBusyWaitNanos()
+                + ", metricsDropped=" + getMetricsDropped() + "]";
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only database image served in place by a native VFS, no extraction and no page copies beyond the mapping.
+ * An uncompressed asset can be mapped with {@code map(afd.getParcelFileDescriptor().getFd(),
+ * afd.getStartOffset(), afd.getLength())}, the descriptor may be closed once this method returns.
+ * Connections opened with {@link #open()} keep the mapping alive after {@link #close()}.
+ */
+public class SQLiteImage implements Closeable {
+
+    private static final String VFS = "sqlite4a-mem";
+
+    private final String mPath;
+
+    private final long mLength;
+
+    private boolean mClosed;
+
+    private SQLiteImage(String path, long length) {
+        mPath = path;
+        mLength = length;
+    }
+
+    @NonNull
+    public static SQLiteImage map(@NonNull File file) {
+        return new SQLiteImage(nativeMapFile(file.getAbsolutePath(), 0, checkLength(file.length())), file.length());
+    }
+
+    @NonNull
+    public static SQLiteImage map(int fd, long offset, long length) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset out of range: " + offset);
+        }
+        return new SQLiteImage(nativeMapFd(fd, offset, checkLength(length)), length);
+    }
+
+    /**
+     * Serves the remaining bytes of a direct buffer, e.g. a {@link java.nio.MappedByteBuffer}.
+     */
+    @NonNull
+    public static SQLiteImage map(@NonNull ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+        return new SQLiteImage(nativeMapBuffer(buffer, buffer.position(), (int) checkLength(buffer.remaining())),
+                buffer.remaining());
+    }
+
+    private static native String nativeMapFile(String path, long offset, long length);
+
+    private static native String nativeMapFd(int fd, long offset, long length);
+
+    private static native String nativeMapBuffer(ByteBuffer buffer, int offset, int length);
+
+    private static native void nativeUnmap(String path);
+
+    private static long checkLength(long length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("empty database image");
+        }
+        return length;
+    }
+
+    /**
+     * URI for {@link SQLite#open(String, int)} with {@link SQLite#OPEN_URI} and {@link SQLite#OPEN_READONLY}.
+     */
+    @NonNull
+    public String getUri() {
+        return "file:" + mPath + "?vfs=" + VFS;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    @NonNull
+    public SQLiteDb open() {
+        final SQLiteDb db = SQLite.open(getUri(), SQLite.OPEN_READONLY | SQLite.OPEN_URI);
+        db.exec("PRAGMA mmap_size=" + mLength + ";");
+        return db;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            nativeUnmap(mPath);
+        }
+    }
+
+}
@@ -16,12 +16,33 @@
 
 package sqlite4a;
 
+import android.support.annotation.NonNull;
+
 import java.io.Closeable;
 import java.util.Iterator;
+import java.util.List;
 
 public interface SQLiteIterator extends Iterator<SQLiteRow>, Closeable {
 
     @Override
     void close();
 
+    /**
+     * Maps the next row to a new instance of {@code type}, filling its {@link SQLiteColumn} fields.
+     * Column indices are resolved once per iterator.
+     */
+    <T> T next(@NonNull Class<T> type);
+
+    @NonNull
+    <T> List<T> toList(@NonNull Class<T> type);
+
+    /**
+     * Reads column {@code index} of the following rows into {@code dst} until it is full or rows are exhausted.
+     *
+     * @return number of rows read
+     */
+    int nextLongs(int index, @NonNull long[] dst, int offset);
+
+    int nextDoubles(int index, @NonNull double[] dst, int offset);
+
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoizing wrapper for pure functions, keeps up to {@code maxSize} recent argument lists and their results.
+ * Register it with {@link SQLite#FUNC_DETERMINISTIC}. Arguments are passed to {@link Body#apply(Object[])}
+ * as Long, Double, String, byte[] or null and must not be modified; the result may be any of those,
+ * Integer or Float.
+ */
+public class SQLiteMemoFunc implements SQLiteDb.Func {
+
+    private final Map<Key, Object> mResults = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Body mBody;
+
+    private final int mMaxSize;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    public SQLiteMemoFunc(int maxSize, @NonNull Body body) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        mMaxSize = maxSize;
+        mBody = body;
+    }
+
+    @Override
+    public void call(@NonNull SQLiteContext context, @NonNull SQLiteValue[] values) {
+        final Object[] args = new Object[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            args[i] = valueOf(values[i]);
+        }
+        final Key key = new Key(args);
+        Object result;
+        synchronized (mResults) {
+            result = mResults.get(key);
+            if (result != null || mResults.containsKey(key)) {
+                ++mHitCount;
+                setResult(context, result);
+                return;
+            }
+            ++mMissCount;
+        }
+        result = mBody.apply(args);
+        synchronized (mResults) {
+            mResults.put(key, result);
+            final Iterator<Key> iterator = mResults.keySet().iterator();
+            while (mResults.size() > mMaxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        setResult(context, result);
+    }
+
+    public int hitCount() {
+        synchronized (mResults) {
+            return mHitCount;
+        }
+    }
+
+    public int missCount() {
+        synchronized (mResults) {
+            return mMissCount;
+        }
+    }
+
+    public void clear() {
+        synchronized (mResults) {
+            mResults.clear();
+        }
+    }
+
+    private static Object valueOf(SQLiteValue value) {
+        switch (value.type()) {
+            case SQLite.TYPE_INTEGER:
+                return value.longValue();
+            case SQLite.TYPE_FLOAT:
+                return value.doubleValue();
+            case SQLite.TYPE_TEXT:
+                return value.stringValue();
+            case SQLite.TYPE_BLOB:
+                return value.blobValue();
+            default:
+                return null;
+        }
+    }
+
+    private static void setResult(SQLiteContext context, Object result) {
+        if (result == null) {
+            context.resultNull();
+        } else if (result instanceof Long || result instanceof Integer) {
+            context.resultLong(((Number) result).longValue());
+        } else if (result instanceof Double || result instanceof Float) {
+            context.resultDouble(((Number) result).doubleValue());
+        } else if (result instanceof String) {
+            context.resultString((String) result);
+        } else if (result instanceof byte[]) {
+            context.resultBlob((byte[]) result);
+        } else {
+            throw new SQLiteException("Unsupported result type: " + result.getClass().getName());
+        }
+    }
+
+    public interface Body {
+        @Nullable
+        Object apply(@NonNull Object[] args);
+    }
+
+    private static final class Key {
+
+        private final Object[] mArgs;
+
+        private final int mHashCode;
+
+        Key(Object[] args) {
+            mArgs = args;
+            mHashCode = Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && Arrays.deepEquals(mArgs, ((Key) o).mArgs));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+    }
+
+}
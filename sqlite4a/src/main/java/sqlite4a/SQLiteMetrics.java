@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Aggregated execution statistics of one SQL text, see {@link SQLiteDb#setMetricsEnabled(int)}.
+ * Statements are keyed by their SQL with literals replaced by {@code ?} and whitespace collapsed, so bound
+ * parameters and inlined values share a single entry.
+ */
+public class SQLiteMetrics {
+
+    private static final int COUNT = 0;
+
+    private static final int TOTAL_NANOS = 1;
+
+    private static final int MAX_NANOS = 2;
+
+    private static final int VM_STEPS = 3;
+
+    private static final int FULLSCAN_STEPS = 4;
+
+    private static final int SORTS = 5;
+
+    private static final int AUTOINDEXES = 6;
+
+    private static final int HISTOGRAM = 7;
+
+    private final String mSql;
+
+    private final long[] mValues;
+
+    SQLiteMetrics(String sql, long[] values) {
+        mSql = sql;
+        mValues = values;
+    }
+
+    @NonNull
+    public String getSql() {
+        return mSql;
+    }
+
+    public long getCount() {
+        return mValues[COUNT];
+    }
+
+    public long getTotalTimeNanos() {
+        return mValues[TOTAL_NANOS];
+    }
+
+    public long getMaxTimeNanos() {
+        return mValues[MAX_NANOS];
+    }
+
+    /**
+     * Upper bound of the wall time below which {@code percentile} of executions completed,
+     * accurate to a power of two. SQLite measures wall time with the VFS clock, in milliseconds on most platforms.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]");
+        }
+        final long count = getCount();
+        final long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int bucket = 0; HISTOGRAM + bucket < mValues.length; ++bucket) {
+            seen += mValues[HISTOGRAM + bucket];
+            if (seen > 0 && seen >= rank) {
+                return bucket == 0 ? 0 : Math.min(bucket < 63 ? 1L << bucket : Long.MAX_VALUE, getMaxTimeNanos());
+            }
+        }
+        return getMaxTimeNanos();
+    }
+
+    /**
+     * Number of virtual machine operations.
+     */
+    public long getVmSteps() {
+        return mValues[VM_STEPS];
+    }
+
+    /**
+     * Number of forward steps in full table scans, high values point to a missing index.
+     */
+    public long getFullScanSteps() {
+        return mValues[FULLSCAN_STEPS];
+    }
+
+    public long getSorts() {
+        return mValues[SORTS];
+    }
+
+    /**
+     * Number of rows inserted into automatic indexes.
+     */
+    public long getAutoIndexes() {
+        return mValues[AUTOINDEXES];
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteMetrics[sql=" + mSql
+                + ", count=" + getCount()
+                + ", totalNanos=" + getTotalTimeNanos()
+                + ", p50Nanos=" + getPercentileNanos(0.5)
+                + ", p99Nanos=" + getPercentileNanos(0.99)
+                + ", vmSteps=" + getVmSteps()
+                + ", fullScanSteps=" + getFullScanSteps()
+                + ", sorts=" + getSorts()
+                + ", autoIndexes=" + getAutoIndexes() + "]";
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One writer and N read-only connections to the same database file in WAL mode.
+ * Connections are leased per call; nested leases on the same thread reuse the connection
+ * already held by that thread. Waiting is bounded by {@code timeoutMs} and served in FIFO order.
+ */
+public class SQLitePool implements Closeable {
+
+    private final SQLiteDb mWriter;
+
+    private final ReentrantLock mWriterLock = new ReentrantLock(true);
+
+    private final ArrayDeque<SQLiteDb> mIdleReaders = new ArrayDeque<>();
+
+    private final Semaphore mReaderPermits;
+
+    private final ThreadLocal<Lease> mReaderLease = new ThreadLocal<>();
+
+    private final long mTimeoutMs;
+
+    private boolean mClosed;
+
+    private SQLitePool(SQLiteDb writer, List<SQLiteDb> readers, long timeoutMs) {
+        mWriter = writer;
+        mIdleReaders.addAll(readers);
+        mReaderPermits = new Semaphore(readers.size(), true);
+        mTimeoutMs = timeoutMs;
+    }
+
+    @NonNull
+    public static SQLitePool open(@NonNull String path, int readerCount, long timeoutMs) {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be > 0");
+        }
+        final SQLiteDb writer = SQLite.open(path, SQLite.OPEN_READWRITE | SQLite.OPEN_CREATE | SQLite.OPEN_NOMUTEX);
+        final List<SQLiteDb> readers = new ArrayList<>(readerCount);
+        try {
+            writer.exec("PRAGMA journal_mode = WAL;");
+            for (int i = 0; i < readerCount; ++i) {
+                readers.add(SQLite.open(path, SQLite.OPEN_READONLY | SQLite.OPEN_NOMUTEX));
+            }
+        } catch (SQLiteException e) {
+            for (final SQLiteDb reader : readers) {
+                reader.close();
+            }
+            writer.close();
+            throw e;
+        }
+        return new SQLitePool(writer, readers, timeoutMs);
+    }
+
+    public <T> T read(@NonNull Func<T> func) {
+        final SQLiteDb db = acquireReader();
+        try {
+            return func.call(db);
+        } finally {
+            releaseReader(db);
+        }
+    }
+
+    public <T> T write(@NonNull Func<T> func) {
+        final SQLiteDb db = acquireWriter();
+        try {
+            return func.call(db);
+        } finally {
+            releaseWriter(db);
+        }
+    }
+
+    @NonNull
+    public SQLiteDb acquireReader() {
+        final Lease lease = mReaderLease.get();
+        if (lease != null) {
+            ++lease.mCount;
+            return lease.mDb;
+        }
+        acquireReaderPermit();
+        final SQLiteDb db;
+        synchronized (mIdleReaders) {
+            if (mClosed) {
+                mReaderPermits.release();
+                throw new SQLiteException("Pool is closed");
+            }
+            db = mIdleReaders.poll();
+        }
+        mReaderLease.set(new Lease(db));
+        return db;
+    }
+
+    public void releaseReader(@NonNull SQLiteDb db) {
+        final Lease lease = mReaderLease.get();
+        if (lease == null || lease.mDb != db) {
+            throw new IllegalStateException("Reader is not leased by the current thread");
+        }
+        if (--lease.mCount == 0) {
+            mReaderLease.remove();
+            synchronized (mIdleReaders) {
+                if (mClosed) {
+                    db.close();
+                } else {
+                    mIdleReaders.push(db);
+                }
+            }
+            mReaderPermits.release();
+        }
+    }
+
+    @NonNull
+    public SQLiteDb acquireWriter() {
+        try {
+            if (!mWriterLock.tryLock(mTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLiteException("Timed out waiting for the writer connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLiteException(e);
+        }
+        synchronized (mIdleReaders) {
+            if (mClosed) {
+                mWriterLock.unlock();
+                throw new SQLiteException("Pool is closed");
+            }
+        }
+        return mWriter;
+    }
+
+    public void releaseWriter(@NonNull SQLiteDb db) {
+        if (db != mWriter || !mWriterLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("Writer is not leased by the current thread");
+        }
+        mWriterLock.unlock();
+    }
+
+    @Override
+    public void close() {
+        synchronized (mIdleReaders) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            for (final SQLiteDb reader : mIdleReaders) {
+                reader.close();
+            }
+            mIdleReaders.clear();
+        }
+        mWriterLock.lock();
+        try {
+            mWriter.close();
+        } finally {
+            mWriterLock.unlock();
+        }
+    }
+
+    private void acquireReaderPermit() {
+        try {
+            if (!mReaderPermits.tryAcquire(mTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLiteException("Timed out waiting for a reader connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLiteException(e);
+        }
+    }
+
+    public interface Func<T> {
+        T call(@NonNull SQLiteDb db);
+    }
+
+    private static final class Lease {
+
+        final SQLiteDb mDb;
+
+        int mCount = 1;
+
+        Lease(SQLiteDb db) {
+            mDb = db;
+        }
+
+    }
+
+}
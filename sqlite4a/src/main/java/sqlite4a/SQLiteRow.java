@@ -17,6 +17,10 @@
 package sqlite4a;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 
 public interface SQLiteRow {
 
@@ -25,6 +29,23 @@ public interface SQLiteRow {
     @NonNull
     String getColumnName(int index);
 
+    /**
+     * @return index of the column with the given name, -1 if there is no such column
+     */
+    int getColumnIndex(@NonNull String name);
+
+    @SQLite.ColumnType
+    int getColumnType(int index);
+
+    /**
+     * Fills {@code types} with {@link SQLite.ColumnType} of every column of the current row in one call.
+     *
+     * @return number of columns, may be greater than {@code types.length}
+     */
+    int getColumnTypes(@NonNull int[] types);
+
+    boolean isNull(int index);
+
     long getColumnLong(int index);
 
     double getColumnDouble(int index);
@@ -33,4 +54,34 @@ public interface SQLiteRow {
 
     byte[] getColumnBlob(int index);
 
+    /**
+     * Copies up to {@code dst.length - offset} UTF-16 chars of the column value into {@code dst}.
+     *
+     * @return full length of the value in chars, -1 for NULL
+     */
+    int getColumnChars(int index, @NonNull char[] dst, int offset);
+
+    /**
+     * Copies up to {@code dst.remaining()} UTF-16 chars of the column value into {@code dst}
+     * and advances its position.
+     *
+     * @return full length of the value in chars, -1 for NULL
+     */
+    int getColumnChars(int index, @NonNull CharBuffer dst);
+
+    /**
+     * Compares the column value with {@code value} as {@link String#compareTo(String)} does,
+     * without creating a String for the column. NULL is less than any string.
+     */
+    int compareColumnString(int index, @Nullable String value);
+
+    boolean columnEquals(int index, @Nullable String value);
+
+    /**
+     * Copies up to {@code dst.remaining()} bytes of the blob into {@code dst} and advances its position.
+     *
+     * @return full size of the blob in bytes, may be greater than the number of bytes copied
+     */
+    int getColumnBlob(int index, @NonNull ByteBuffer dst);
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sqlite4a;
+
+/**
+ * Process-wide memory statistics, see {@link SQLite#getStatus(boolean)}.
+ * Each value has a current and a highwater mark.
+ */
+public class SQLiteStatus {
+
+    private static final int MEMORY_USED = 0;
+
+    private static final int PAGECACHE_USED = 2;
+
+    private static final int PAGECACHE_OVERFLOW = 4;
+
+    private static final int MALLOC_SIZE = 6;
+
+    private static final int PARSER_STACK = 8;
+
+    private static final int PAGECACHE_SIZE = 10;
+
+    private static final int MALLOC_COUNT = 12;
+
+    private final long[] mValues;
+
+    SQLiteStatus(long[] values) {
+        mValues = values;
+    }
+
+    /**
+     * Bytes currently allocated through the SQLite allocator.
+     */
+    public long getMemoryUsed() {
+        return mValues[MEMORY_USED];
+    }
+
+    public long getMemoryUsedHighwater() {
+        return mValues[MEMORY_USED + 1];
+    }
+
+    /**
+     * Outstanding allocations.
+     */
+    public long getMallocCount() {
+        return mValues[MALLOC_COUNT];
+    }
+
+    public long getMallocCountHighwater() {
+        return mValues[MALLOC_COUNT + 1];
+    }
+
+    /**
+     * Largest single allocation request.
+     */
+    public long getMallocSizeHighwater() {
+        return mValues[MALLOC_SIZE + 1];
+    }
+
+    /**
+     * Pages used from the static page cache buffer, 0 unless one is configured.
+     */
+    public long getPageCacheUsed() {
+        return mValues[PAGECACHE_USED];
+    }
+
+    /**
+     * Page cache bytes that did not fit the static buffer and were allocated from the heap.
+     */
+    public long getPageCacheOverflow() {
+        return mValues[PAGECACHE_OVERFLOW];
+    }
+
+    public long getPageCacheOverflowHighwater() {
+        return mValues[PAGECACHE_OVERFLOW + 1];
+    }
+
+    public long getPageCacheSizeHighwater() {
+        return mValues[PAGECACHE_SIZE + 1];
+    }
+
+    public long getParserStackHighwater() {
+        return mValues[PARSER_STACK + 1];
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteStatus[memoryUsed=" + getMemoryUsed()
+                + ", memoryHighwater=" + getMemoryUsedHighwater()
+                + ", mallocCount=" + getMallocCount()
+                + ", pageCacheOverflow=" + getPageCacheOverflow() + "]";
+    }
+
+}
@@ -20,17 +20,36 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SQLiteStmt implements Closeable {
 
     private final long mStmtPtr;
 
+    private final String mSql;
+
+    private final SQLiteStmtCache mCache;
+
+    private List<ByteBuffer> mBoundBuffers;
+
+    private boolean mClosed;
+
     SQLiteStmt(long stmtPtr) {
+        this(stmtPtr, null, null);
+    }
+
+    SQLiteStmt(long stmtPtr, String sql, SQLiteStmtCache cache) {
         mStmtPtr = stmtPtr;
+        mSql = sql;
+        mCache = cache;
     }
 
     static native void nativeFinalize(long ptr);
 
+    static native void nativeRecycle(long ptr);
+
     private static native void nativeBindNull(long ptr, int index);
 
     private static native void nativeBindLong(long ptr, int index, long value);
@@ -41,12 +60,17 @@ public class SQLiteStmt implements Closeable {
 
     private static native void nativeBindBlob(long ptr, int index, byte[] value);
 
+    private static native void nativeBindDirectBlob(long ptr, int index, ByteBuffer value, int offset, int length);
+
     private static native void nativeClearBindings(long ptr);
 
     private static native long nativeInsert(long ptr);
 
     private static native int nativeExecute(long ptr);
 
+    private static native long[] nativeExecuteBatch(long ptr, int rowCount, int[] types, Object[] columns,
+                                                    boolean inTransaction, boolean rowIds);
+
     private static native int nativeBusy(long ptr);
 
     private static native void nativeReset(long ptr);
@@ -75,8 +99,31 @@ public class SQLiteStmt implements Closeable {
         }
     }
 
+    /**
+     * Binds {@code value.remaining()} bytes starting at {@code value.position()}.
+     * A direct buffer is bound without copying and must not be modified until
+     * {@link #clearBindings()} or {@link #close()} is called.
+     */
+    public void bindBlob(int index, @Nullable ByteBuffer value) {
+        if (value == null) {
+            return;
+        }
+        if (value.isDirect()) {
+            nativeBindDirectBlob(mStmtPtr, index, value, value.position(), value.remaining());
+            if (mBoundBuffers == null) {
+                mBoundBuffers = new ArrayList<>();
+            }
+            mBoundBuffers.add(value);
+        } else {
+            final byte[] blob = new byte[value.remaining()];
+            value.duplicate().get(blob);
+            nativeBindBlob(mStmtPtr, index, blob);
+        }
+    }
+
     public void clearBindings() {
         nativeClearBindings(mStmtPtr);
+        releaseBuffers();
     }
 
     public long insert() {
@@ -88,16 +135,69 @@ public class SQLiteStmt implements Closeable {
         if (nativeBusy(mStmtPtr) > 0) {
             nativeReset(mStmtPtr);
         }
-        return new RowIterator(mStmtPtr);
+        return new RowIterator(this, mStmtPtr);
+    }
+
+    /**
+     * Same as {@link #select()}, but steps up to {@code windowSize} rows per native call and reads
+     * column values from a packed buffer, so row access does not cross JNI for every cell.
+     */
+    @NonNull
+    public SQLiteIterator select(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be > 0");
+        }
+        if (nativeBusy(mStmtPtr) > 0) {
+            nativeReset(mStmtPtr);
+        }
+        return new WindowIterator(this, mStmtPtr, windowSize);
     }
 
     public int execute() {
         return nativeExecute(mStmtPtr);
     }
 
+    /**
+     * Binds and steps every row of the batch in a single native call.
+     *
+     * @return number of changes made by each row
+     */
+    @NonNull
+    public long[] executeBatch(@NonNull SQLiteBatch batch, boolean inTransaction) {
+        final long[] result = nativeExecuteBatch(mStmtPtr, batch.getRowCount(), batch.getTypes(),
+                batch.getColumns(), inTransaction, false);
+        releaseBuffers();
+        return result;
+    }
+
+    /**
+     * Binds and steps every row of the batch in a single native call.
+     *
+     * @return last insert rowid after each row
+     */
+    @NonNull
+    public long[] insertBatch(@NonNull SQLiteBatch batch, boolean inTransaction) {
+        final long[] result = nativeExecuteBatch(mStmtPtr, batch.getRowCount(), batch.getTypes(),
+                batch.getColumns(), inTransaction, true);
+        releaseBuffers();
+        return result;
+    }
+
     @Override
     public void close() {
-        nativeFinalize(mStmtPtr);
+        if (!mClosed) {
+            mClosed = true;
+            if (mCache == null || !mCache.offer(mSql, mStmtPtr)) {
+                nativeFinalize(mStmtPtr);
+            }
+            releaseBuffers();
+        }
+    }
+
+    private void releaseBuffers() {
+        if (mBoundBuffers != null) {
+            mBoundBuffers.clear();
+        }
     }
 
 }
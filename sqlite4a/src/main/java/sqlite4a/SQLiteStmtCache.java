@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-connection LRU cache of prepared statements keyed by SQL text.
+ * A statement is removed from the cache while it is in use and returned on {@link SQLiteStmt#close()}.
+ */
+public class SQLiteStmtCache {
+
+    private final Map<String, Long> mStatements = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int mMaxSize;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    private int mEvictionCount;
+
+    private boolean mClosed;
+
+    SQLiteStmtCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public synchronized int size() {
+        return mStatements.size();
+    }
+
+    public synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SQLiteStmtCache[maxSize=" + mMaxSize
+                + ", hits=" + mHitCount
+                + ", misses=" + mMissCount
+                + ", evictions=" + mEvictionCount + "]";
+    }
+
+    synchronized long take(String sql) {
+        if (mMaxSize <= 0) {
+            return 0;
+        }
+        final Long stmtPtr = mStatements.remove(sql);
+        if (stmtPtr != null) {
+            ++mHitCount;
+            return stmtPtr;
+        }
+        ++mMissCount;
+        return 0;
+    }
+
+    synchronized boolean offer(String sql, long stmtPtr) {
+        if (mClosed || mMaxSize <= 0 || mStatements.containsKey(sql)) {
+            return false;
+        }
+        SQLiteStmt.nativeRecycle(stmtPtr);
+        mStatements.put(sql, stmtPtr);
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    synchronized void resize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(Math.max(0, maxSize));
+    }
+
+    synchronized void close() {
+        mClosed = true;
+        for (final long stmtPtr : mStatements.values()) {
+            SQLiteStmt.nativeFinalize(stmtPtr);
+        }
+        mStatements.clear();
+    }
+
+    private void trimToSize(int maxSize) {
+        final Iterator<Long> iterator = mStatements.values().iterator();
+        while (mStatements.size() > maxSize && iterator.hasNext()) {
+            SQLiteStmt.nativeFinalize(iterator.next());
+            iterator.remove();
+            ++mEvictionCount;
+        }
+    }
+
+}
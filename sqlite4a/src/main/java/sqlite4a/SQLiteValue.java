@@ -18,12 +18,18 @@ package sqlite4a;
 
 public class SQLiteValue {
 
-    private final long mValuePtr;
+    private long mValuePtr;
 
     SQLiteValue(long valuePtr) {
         mValuePtr = valuePtr;
     }
 
+    void reset(long valuePtr) {
+        mValuePtr = valuePtr;
+    }
+
+    static native int nativeType(long valuePtr);
+
     static native long nativeLongValue(long valuePtr);
 
     static native String nativeStringValue(long valuePtr);
@@ -32,6 +38,11 @@ public class SQLiteValue {
 
     static native byte[] nativeBlobValue(long valuePtr);
 
+    @SQLite.ColumnType
+    public int type() {
+        return nativeType(mValuePtr);
+    }
+
     public long longValue() {
         return nativeLongValue(mValuePtr);
     }
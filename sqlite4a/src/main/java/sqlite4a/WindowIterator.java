@@ -0,0 +1,460 @@
+/*
+ * Copyright 2016-2017 exzogeni.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sqlite4a;
+
+import android.support.annotation.NonNull;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+/**
+ * Steps up to {@code windowSize} rows per native call and packs their values into a direct buffer.
+ * Row layout: for each column one type byte followed by 8 bytes for INTEGER/FLOAT,
+ * a 4-byte length in bytes plus raw bytes for TEXT(UTF-16, native order)/BLOB, or nothing for NULL.
+ * Conversions between numbers and text happen on read and follow SQLite's rules.
+ */
+class WindowIterator extends AbstractRowIterator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final int SQLITE_INTEGER = 1;
+
+    private static final int SQLITE_FLOAT = 2;
+
+    private static final int SQLITE_TEXT = 3;
+
+    private static final int SQLITE_BLOB = 4;
+
+    private static final int WINDOW_DONE = 1 << 30;
+
+    private static final int WINDOW_PENDING = 1 << 29;
+
+    private static final int WINDOW_ROWS_MASK = WINDOW_PENDING - 1;
+
+    // the %!.15g SQLite formats a FLOAT with when it is read as text,
+    // SQLite adds half a unit in the last place and truncates, exact arithmetic makes that HALF_UP
+    private static final MathContext FLOAT_TEXT = new MathContext(15, RoundingMode.HALF_UP);
+
+    private static final long MAX_SIGNIFICAND = (Long.MAX_VALUE - 9) / 10;
+
+    private final int mWindowSize;
+
+    private final int mColumnCount;
+
+    private final byte[] mTypes;
+
+    private final int[] mOffsets;
+
+    private ByteBuffer mWindow;
+
+    private char[] mScratch = new char[128];
+
+    private int mRowsLeft;
+
+    private int mPosition;
+
+    private boolean mPending;
+
+    private boolean mDone;
+
+    private boolean mHasNext;
+
+    WindowIterator(SQLiteStmt stmt, long stmtPtr, int windowSize) {
+        super(stmt, stmtPtr);
+        mWindowSize = windowSize;
+        mColumnCount = RowIterator.nativeGetColumnCount(stmtPtr);
+        mTypes = new byte[mColumnCount];
+        mOffsets = new int[mColumnCount];
+        mWindow = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    private static native int nativeFillWindow(long ptr, ByteBuffer window, int capacity, int maxRows,
+                                               boolean pending);
+
+    @Override
+    public boolean hasNext() {
+        if (!mHasNext && mRowsLeft == 0 && !mDone) {
+            fillWindow();
+        }
+        if (!mHasNext && mRowsLeft > 0) {
+            --mRowsLeft;
+            mHasNext = true;
+            readRow();
+        }
+        return mHasNext;
+    }
+
+    @Override
+    public SQLiteRow next() {
+        if (hasNext()) {
+            mHasNext = false;
+            return this;
+        }
+        throw new NoSuchElementException();
+    }
+
+    public int getColumnCount() {
+        return mColumnCount;
+    }
+
+    public int getColumnType(int index) {
+        return mTypes[index];
+    }
+
+    public int getColumnTypes(@NonNull int[] types) {
+        final int count = Math.min(types.length, mColumnCount);
+        for (int i = 0; i < count; ++i) {
+            types[i] = mTypes[i];
+        }
+        return mColumnCount;
+    }
+
+    public boolean isNull(int index) {
+        return mTypes[index] == SQLite.TYPE_NULL;
+    }
+
+    public long getColumnLong(int index) {
+        switch (mTypes[index]) {
+            case SQLITE_INTEGER:
+                return mWindow.getLong(mOffsets[index]);
+            case SQLITE_FLOAT:
+                return (long) mWindow.getDouble(mOffsets[index]);
+            case SQLITE_TEXT:
+            case SQLITE_BLOB:
+                return parseLong(index);
+            default:
+                return 0;
+        }
+    }
+
+    public double getColumnDouble(int index) {
+        switch (mTypes[index]) {
+            case SQLITE_INTEGER:
+                return mWindow.getLong(mOffsets[index]);
+            case SQLITE_FLOAT:
+                return mWindow.getDouble(mOffsets[index]);
+            case SQLITE_TEXT:
+            case SQLITE_BLOB:
+                return parseDouble(index);
+            default:
+                return 0;
+        }
+    }
+
+    public String getColumnString(int index) {
+        switch (mTypes[index]) {
+            case SQLITE_INTEGER:
+                return String.valueOf(mWindow.getLong(mOffsets[index]));
+            case SQLITE_FLOAT:
+                return formatDouble(mWindow.getDouble(mOffsets[index]));
+            case SQLITE_TEXT:
+                final int length = mWindow.getInt(mOffsets[index]) / 2;
+                if (mScratch.length < length) {
+                    mScratch = new char[Math.max(length, mScratch.length * 2)];
+                }
+                copyChars(mOffsets[index] + 4, mScratch, 0, length);
+                return new String(mScratch, 0, length);
+            case SQLITE_BLOB:
+                final byte[] blob = getColumnBlob(index);
+                return new String(blob, UTF_8);
+            default:
+                return null;
+        }
+    }
+
+    public int getColumnChars(int index, @NonNull char[] dst, int offset) {
+        return getColumnChars(index, dst, offset, dst.length - offset);
+    }
+
+    public int getColumnChars(int index, @NonNull CharBuffer dst) {
+        if (dst.hasArray()) {
+            final int length = getColumnChars(index, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + Math.min(Math.max(length, 0), dst.remaining()));
+            return length;
+        }
+        final String value = getColumnString(index);
+        if (value == null) {
+            return -1;
+        }
+        dst.put(value, 0, Math.min(value.length(), dst.remaining()));
+        return value.length();
+    }
+
+    private int getColumnChars(int index, char[] dst, int offset, int maxLength) {
+        if (SQLITE_TEXT == mTypes[index]) {
+            final int length = mWindow.getInt(mOffsets[index]) / 2;
+            copyChars(mOffsets[index] + 4, dst, offset, Math.min(length, maxLength));
+            return length;
+        }
+        final String value = getColumnString(index);
+        if (value == null) {
+            return -1;
+        }
+        value.getChars(0, Math.min(value.length(), maxLength), dst, offset);
+        return value.length();
+    }
+
+    public int compareColumnString(int index, String value) {
+        if (SQLITE_TEXT != mTypes[index]) {
+            final String column = getColumnString(index);
+            if (column == null || value == null) {
+                return column == value ? 0 : (column == null ? -1 : 1);
+            }
+            return column.compareTo(value);
+        }
+        if (value == null) {
+            return 1;
+        }
+        final int length = mWindow.getInt(mOffsets[index]) / 2;
+        final int position = mOffsets[index] + 4;
+        final int limit = Math.min(length, value.length());
+        for (int i = 0; i < limit; ++i) {
+            final char c = mWindow.getChar(position + 2 * i);
+            if (c != value.charAt(i)) {
+                return c - value.charAt(i);
+            }
+        }
+        return length - value.length();
+    }
+
+    public boolean columnEquals(int index, String value) {
+        if (SQLITE_TEXT == mTypes[index] && value != null
+                && mWindow.getInt(mOffsets[index]) != 2 * value.length()) {
+            return false;
+        }
+        return compareColumnString(index, value) == 0;
+    }
+
+    public byte[] getColumnBlob(int index) {
+        switch (mTypes[index]) {
+            case SQLITE_BLOB:
+                final int length = mWindow.getInt(mOffsets[index]);
+                final byte[] value = new byte[length];
+                mWindow.position(mOffsets[index] + 4);
+                mWindow.get(value);
+                return value;
+            case SQLITE_INTEGER:
+            case SQLITE_FLOAT:
+            case SQLITE_TEXT:
+                return getColumnString(index).getBytes(UTF_8);
+            default:
+                return new byte[0];
+        }
+    }
+
+    public int getColumnBlob(int index, @NonNull ByteBuffer dst) {
+        if (SQLITE_BLOB == mTypes[index]) {
+            final int length = mWindow.getInt(mOffsets[index]);
+            final ByteBuffer src = mWindow.duplicate();
+            src.position(mOffsets[index] + 4);
+            src.limit(mOffsets[index] + 4 + Math.min(length, dst.remaining()));
+            dst.put(src);
+            return length;
+        }
+        final byte[] blob = getColumnBlob(index);
+        dst.put(blob, 0, Math.min(blob.length, dst.remaining()));
+        return blob.length;
+    }
+
+    private void fillWindow() {
+        mWindow.clear();
+        int ret = nativeFillWindow(mStmtPtr, mWindow, mWindow.capacity(), mWindowSize, mPending);
+        while ((ret & WINDOW_ROWS_MASK) == 0 && (ret & WINDOW_PENDING) != 0) {
+            // single row does not fit into the window, grow it and retry the pending row
+            mWindow = ByteBuffer.allocateDirect(mWindow.capacity() * 2).order(ByteOrder.nativeOrder());
+            ret = nativeFillWindow(mStmtPtr, mWindow, mWindow.capacity(), mWindowSize, true);
+        }
+        mRowsLeft = ret & WINDOW_ROWS_MASK;
+        mPending = (ret & WINDOW_PENDING) != 0;
+        mDone = (ret & WINDOW_DONE) != 0;
+        mPosition = 0;
+    }
+
+    private void readRow() {
+        int position = mPosition;
+        for (int i = 0; i < mColumnCount; ++i) {
+            final byte type = mWindow.get(position++);
+            mTypes[i] = type;
+            mOffsets[i] = position;
+            if (SQLITE_INTEGER == type || SQLITE_FLOAT == type) {
+                position += 8;
+            } else if (SQLITE_TEXT == type || SQLITE_BLOB == type) {
+                position += 4 + mWindow.getInt(position);
+            }
+        }
+        mPosition = position;
+    }
+
+    private void copyChars(int position, char[] dst, int offset, int length) {
+        for (int i = 0; i < length; ++i) {
+            dst[offset + i] = mWindow.getChar(position + 2 * i);
+        }
+    }
+
+    private int textLength(int index) {
+        final int bytes = mWindow.getInt(mOffsets[index]);
+        return SQLITE_TEXT == mTypes[index] ? bytes / 2 : bytes;
+    }
+
+    private char textChar(int index, int i) {
+        if (SQLITE_TEXT == mTypes[index]) {
+            return mWindow.getChar(mOffsets[index] + 4 + 2 * i);
+        }
+        return (char) (mWindow.get(mOffsets[index] + 4 + i) & 0xff);
+    }
+
+    private int skipSpaces(int index, int i, int length) {
+        while (i < length && isSpace(textChar(index, i))) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // sqlite3Atoi64(): leading digits only, clamped to the long range
+    private long parseLong(int index) {
+        final int length = textLength(index);
+        int i = skipSpaces(index, 0, length);
+        boolean negative = false;
+        if (i < length && (textChar(index, i) == '-' || textChar(index, i) == '+')) {
+            negative = textChar(index, i++) == '-';
+        }
+        while (i < length && textChar(index, i) == '0') {
+            ++i;
+        }
+        long value = 0;
+        int digits = 0;
+        for (; i < length && isDigit(textChar(index, i)); ++i, ++digits) {
+            value = value * 10 + (textChar(index, i) - '0');
+        }
+        // 19 digits fit in 64 unsigned bits, a negative value has passed Long.MAX_VALUE
+        if (digits > 19 || value < 0) {
+            return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return negative ? -value : value;
+    }
+
+    // sqlite3AtoF(): the longest numeric prefix, a signed zero if there is none; like SQLite it keeps
+    // only the significant digits that fit in a long
+    private double parseDouble(int index) {
+        final int length = textLength(index);
+        int i = skipSpaces(index, 0, length);
+        boolean negative = false;
+        if (i < length && (textChar(index, i) == '-' || textChar(index, i) == '+')) {
+            negative = textChar(index, i++) == '-';
+        }
+        long significand = 0;
+        int exponent = 0;
+        boolean digits = false;
+        for (; i < length && isDigit(textChar(index, i)); ++i, digits = true) {
+            if (significand < MAX_SIGNIFICAND) {
+                significand = significand * 10 + (textChar(index, i) - '0');
+            } else {
+                ++exponent;
+            }
+        }
+        if (i < length && textChar(index, i) == '.') {
+            for (++i; i < length && isDigit(textChar(index, i)); ++i, digits = true) {
+                if (significand < MAX_SIGNIFICAND) {
+                    significand = significand * 10 + (textChar(index, i) - '0');
+                    --exponent;
+                }
+            }
+        }
+        if (digits && i < length && (textChar(index, i) == 'e' || textChar(index, i) == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < length && (textChar(index, i) == '-' || textChar(index, i) == '+')) {
+                negativeExponent = textChar(index, i++) == '-';
+            }
+            int e = 0;
+            for (; i < length && isDigit(textChar(index, i)); ++i) {
+                e = e < 10000 ? e * 10 + (textChar(index, i) - '0') : 10000;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (significand == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        final double value = Double.parseDouble(significand + "e" + exponent);
+        return negative ? -value : value;
+    }
+
+    // same text as sqlite3_column_text() gives for a FLOAT, except that SQLite's long double arithmetic may round
+    // a value within an ulp of a tie in the last digit the other way
+    static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Inf" : "-Inf";
+        }
+        if (value == 0) {
+            return "0.0";
+        }
+        final BigDecimal rounded = new BigDecimal(Math.abs(value)).round(FLOAT_TEXT);
+        String digits = rounded.unscaledValue().toString();
+        final int exponent = digits.length() - 1 - rounded.scale();
+        int significant = digits.length();
+        while (significant > 1 && digits.charAt(significant - 1) == '0') {
+            --significant;
+        }
+        digits = digits.substring(0, significant);
+        final StringBuilder text = new StringBuilder(24);
+        if (value < 0) {
+            text.append('-');
+        }
+        if (exponent < -4 || exponent >= FLOAT_TEXT.getPrecision()) {
+            text.append(digits.charAt(0)).append('.');
+            text.append(digits.length() > 1 ? digits.substring(1) : "0");
+            text.append('e').append(exponent < 0 ? '-' : '+');
+            if (Math.abs(exponent) < 10) {
+                text.append('0');
+            }
+            text.append(Math.abs(exponent));
+        } else if (exponent < 0) {
+            text.append("0.");
+            for (int i = -1; i > exponent; --i) {
+                text.append('0');
+            }
+            text.append(digits);
+        } else {
+            for (int i = 0; i <= exponent; ++i) {
+                text.append(i < digits.length() ? digits.charAt(i) : '0');
+            }
+            text.append('.');
+            text.append(digits.length() > exponent + 1 ? digits.substring(exponent + 1) : "0");
+        }
+        return text.toString();
+    }
+
+}